@@ -18,6 +18,10 @@
  */
 package com.github.tlrx.elasticsearch.test;
 
+import com.github.tlrx.elasticsearch.test.node.EmbeddedCluster;
+import com.github.tlrx.elasticsearch.test.node.ForkedNode;
+import com.github.tlrx.elasticsearch.test.node.NodeProfile;
+import com.github.tlrx.elasticsearch.test.node.StorageMode;
 import com.github.tlrx.elasticsearch.test.provider.*;
 import com.github.tlrx.elasticsearch.test.request.*;
 import com.google.common.base.Preconditions;
@@ -25,7 +29,14 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.plugins.Plugin;
 
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class aims to simplify the ElasticSearch setup for unit testing. It allows to start and stop an embedded local
@@ -65,8 +76,26 @@ import java.util.Collection;
  */
 public class EsSetup {
 
+    /**
+     * Default maximum number of requests in flight in {@link #executeAsync(Request...)}
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    /**
+     * Runs the blocking requests executed asynchronously, the number of threads is bounded by the number of requests
+     * in flight
+     */
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "elasticsearch-test-setup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final ClientProvider provider;
 
+    private boolean coalescedWrites = true;
+    private RefreshStrategy refreshStrategy = RefreshStrategy.IMMEDIATE;
+
     /**
      * This constructor uses the {@link ClientProvider} to retrieve an instance of {@link Client} and use it to execute requests.
      *
@@ -95,6 +124,42 @@ public class EsSetup {
         this(new LocalClientProvider(settings, plugins));
     }
 
+    /**
+     * This constructor instantiates a local {@link org.elasticsearch.node.Node} using a {@link NodeProfile}, e.g.
+     * {@link NodeProfile#FAST} for indices with 1 shard and no replica and a node without HTTP.
+     */
+    public EsSetup(NodeProfile profile) {
+        this(new LocalClientProvider(profile));
+    }
+
+    public EsSetup(Settings settings, Collection<Class<? extends Plugin>> plugins, NodeProfile profile) {
+        this(new LocalClientProvider(settings, plugins, StorageMode.DISK, profile));
+    }
+
+    /**
+     * This constructor starts a cluster of local nodes, requests are sent to the nodes in turn:
+     * <pre>
+     * EsSetup esSetup = new EsSetup(new EmbeddedCluster("my-cluster").withDataNodes(3));
+     * </pre>
+     *
+     * @param cluster the cluster to start
+     */
+    public EsSetup(EmbeddedCluster cluster) {
+        this(new ClusterClientProvider(cluster));
+    }
+
+    /**
+     * This constructor starts a node in a child JVM with its own heap, requests are sent through a transport client:
+     * <pre>
+     * EsSetup esSetup = new EsSetup(new ForkedNode("my-node").withJvmArgs("-Xmx1g"));
+     * </pre>
+     *
+     * @param node the node to start
+     */
+    public EsSetup(ForkedNode node) {
+        this(new ForkedClientProvider(node));
+    }
+
     /**
      * This constructor allows to use a custom client (usually a TransportClient) to execute requests.
      * The client can be injected with a Dependency Injection framework or manually instantiated with Elasticsearch API:
@@ -127,20 +192,126 @@ public class EsSetup {
         return provider.client();
     }
 
+    /**
+     * @param coalescedWrites true to send consecutive index and delete requests given to {@link #execute(Request...)}
+     *                        in a single bulk request refreshed once, default to true
+     * @return the current EsSetup instance
+     * @see DocumentBulk
+     */
+    public EsSetup withCoalescedWrites(boolean coalescedWrites) {
+        this.coalescedWrites = coalescedWrites;
+        return this;
+    }
+
+    /**
+     * @param refreshStrategy when the documents written by the requests become visible to searches, for the requests
+     *                        which do not select their own strategy. Default to {@link RefreshStrategy#IMMEDIATE}.
+     *                        With {@link RefreshStrategy#DEFERRED}, the indices written by the requests of an
+     *                        {@link #execute(Request...)}, {@link #executeAsync(Request...)} or
+     *                        {@link #executePlanned(Request...)} call are refreshed once at the end of the call.
+     * @return the current EsSetup instance
+     */
+    public EsSetup withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        Preconditions.checkNotNull(refreshStrategy, "No refresh strategy specified");
+        this.refreshStrategy = refreshStrategy;
+        return this;
+    }
+
     /**
      * Executes one or more requests. The requests will use the provided client. Execution will stop if a request fails.
+     * <br/>
+     * Consecutive index and delete requests are sent in a single bulk request unless disabled with
+     * {@link #withCoalescedWrites(boolean)}: all the documents of the bulk request are then sent even if some of them
+     * fail.
      *
      * @param requests an array of requests to execute
      * @return the current EsSetup instance
      */
     public EsSetup execute(Request... requests) {
         provider.open();
-        for (Request request : requests) {
-            doExecute(request);
+        RefreshBatch batch = new RefreshBatch(provider.client(), refreshStrategy);
+        try {
+            for (Request<?> request : coalescedWrites ? DocumentBulk.coalesce(requests) : Arrays.asList(requests)) {
+                executeOpened(batch, request);
+            }
+        } catch (RuntimeException e) {
+            // Documents written before the failure are visible too
+            try {
+                batch.refresh();
+            } catch (RuntimeException r) {
+                e.addSuppressed(r);
+            }
+            throw e;
         }
+        batch.refresh();
         return this;
     }
 
+    /**
+     * Executes independent requests concurrently, with at most {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} requests in
+     * flight. See {@link #executeAsync(int, Request...)}.
+     *
+     * @param requests an array of independent requests to execute
+     * @return a future completed once all the requests are executed
+     */
+    public CompletableFuture<EsSetup> executeAsync(Request<?>... requests) {
+        return executeAsync(DEFAULT_MAX_CONCURRENT_REQUESTS, requests);
+    }
+
+    /**
+     * Executes independent requests concurrently, such as the creation of several indices and templates, so that they
+     * take about the time of the slowest requests instead of the sum of their times. Requests are started in order:
+     * requests which depend on each other, such as deleting and creating the same index, must be executed by separate
+     * calls. Requests implementing {@link AsyncRequest} are executed without blocking, the others are executed on a
+     * thread pool. No request is started after a request fails, the future then fails once the requests in flight
+     * complete.
+     * <pre>
+     * esSetup.executeAsync(createIndex("index-1"), createIndex("index-2"), createTemplate("template-1")...).join();
+     * </pre>
+     *
+     * @param maxConcurrentRequests the maximum number of requests in flight
+     * @param requests              an array of independent requests to execute
+     * @return a future completed once all the requests are executed
+     */
+    public CompletableFuture<EsSetup> executeAsync(int maxConcurrentRequests, Request<?>... requests) {
+        ExecutionPlan plan = ExecutionPlan.independent(requests);
+        provider.open();
+        return plan.execute(new RefreshBatch(provider.client(), refreshStrategy), ASYNC_EXECUTOR, maxConcurrentRequests)
+                .thenApply(executed -> this);
+    }
+
+    /**
+     * Executes requests concurrently, with at most {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} requests in flight. See
+     * {@link #executePlanned(int, Request...)}.
+     *
+     * @param requests an array of requests to execute
+     * @return the executed plan
+     */
+    public ExecutionPlan executePlanned(Request<?>... requests) {
+        return executePlanned(DEFAULT_MAX_CONCURRENT_REQUESTS, requests);
+    }
+
+    /**
+     * Executes requests concurrently, each request waiting for the earlier requests it depends on: indices and
+     * templates are deleted before templates are created, templates are created before the indices they match, and
+     * indices are created before their documents are written. The batch has the same effect as with
+     * {@link #execute(Request...)}, its critical path is logged. Execution stops if a request fails.
+     * <pre>
+     * esSetup.executePlanned(deleteAll(), createTemplate("template-1")..., createIndex("index-1"), createIndex("index-2"));
+     * </pre>
+     *
+     * @param maxConcurrentRequests the maximum number of requests in flight
+     * @param requests              an array of requests to execute
+     * @return the executed plan, which gives the critical path of the batch
+     * @see ExecutionPlan
+     */
+    public ExecutionPlan executePlanned(int maxConcurrentRequests, Request<?>... requests) {
+        ExecutionPlan plan = ExecutionPlan.of(requests);
+        provider.open();
+        return AsyncRequest.await(plan.execute(new RefreshBatch(provider.client(), refreshStrategy), ASYNC_EXECUTOR,
+                maxConcurrentRequests));
+    }
+
     /**
      * Executes a request
      *
@@ -148,11 +319,18 @@ public class EsSetup {
      * @param <T>     the type of the request execution's result
      * @return the result of the execution (can be {@link Void}
      */
-    private <T> T doExecute(Request request) {
-        Preconditions.checkNotNull(request, "Request must not be null");
+    private <T> T doExecute(Request<T> request) {
         provider.open();
+        return executeOpened(new RefreshBatch(provider.client(), refreshStrategy), request);
+    }
+
+    /**
+     * Executes a request once the provider is opened
+     */
+    private <T> T executeOpened(RefreshBatch batch, Request<T> request) {
+        Preconditions.checkNotNull(request, "Request must not be null");
         try {
-            return (T) request.execute(provider.client());
+            return batch.execute(request);
         } catch (EsSetupRuntimeException e) {
             throw new EsSetupRuntimeException("Exception when executing request " + request, e);
         }
@@ -197,6 +375,17 @@ public class EsSetup {
         return new ClassPathJSONProvider(klass, resourceName);
     }
 
+    /**
+     * Util method to load a JSON file from the file system. Bulk data loaded from the file with
+     * {@link CreateIndex#withData(JSONProvider)} is memory-mapped rather than read onto the heap.
+     *
+     * @param path the path of the file to load
+     * @return a {@link JSONProvider} used to get file's content as JSON
+     */
+    public static JSONProvider fromFile(Path path) {
+        return new FileJSONProvider(path);
+    }
+
     /**
      * Instantiates a request that can be used to create an index.
      * Here's a sample of how create an index:
@@ -270,9 +459,10 @@ public class EsSetup {
     }
 
     /**
-     * Instantiates a request that can be used to delete given templates
+     * Instantiates a request that can be used to delete given templates, the template holding the default index
+     * settings of the node is only deleted if given by its exact name
      *
-     * @param templates the templates names
+     * @param templates the templates names, may contain wildcards, all templates if none
      * @return a {@link DeleteTemplates} request
      */
     public static DeleteTemplates deleteTemplates(String... templates) {
@@ -298,6 +488,16 @@ public class EsSetup {
         return new CreateTemplate(name);
     }
 
+    /**
+     * Instantiates a request that can be used to force-merge indices, down to 1 segment per shard by default.
+     *
+     * @param indices the names of the indices
+     * @return a {@link ForceMerge} request
+     */
+    public static ForceMerge forceMerge(String... indices) {
+        return new ForceMerge(indices);
+    }
+
     /**
      * Used to check if the index exists or not.
      *
@@ -320,6 +520,32 @@ public class EsSetup {
         return doExecute(new Exists(index, type, id));
     }
 
+    /**
+     * Used to check which documents exist, with multi-get requests of at most
+     * {@value ExistsAll#DEFAULT_CHUNK_SIZE} documents.
+     *
+     * @param index the index of the documents
+     * @param type  the type of the documents
+     * @param ids   the ids of the documents
+     * @return the ids of the documents that exist, in the order of the given ids
+     */
+    public Set<String> existsAll(String index, String type, String... ids) {
+        return doExecute(new ExistsAll(index, type, ids));
+    }
+
+    /**
+     * Used to check which documents exist, with multi-get requests of at most
+     * {@value ExistsAll#DEFAULT_CHUNK_SIZE} documents.
+     *
+     * @param index the index of the documents
+     * @param type  the type of the documents
+     * @param ids   the ids of the documents
+     * @return the ids of the documents that exist, in the order of the given ids
+     */
+    public Set<String> existsAll(String index, String type, List<String> ids) {
+        return doExecute(new ExistsAll(index, type, ids));
+    }
+
     /**
      * Counts all the documents in all indices
      *
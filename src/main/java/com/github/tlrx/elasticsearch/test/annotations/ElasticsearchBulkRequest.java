@@ -3,6 +3,8 @@
  */
 package com.github.tlrx.elasticsearch.test.annotations;
 
+import org.elasticsearch.common.xcontent.XContentType;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -36,7 +38,60 @@ public @interface ElasticsearchBulkRequest {
     String nodeName() default ElasticsearchNode.DEFAULT_NODE_NAME;
 
     /**
-     * JSON file containing the Bulk request items
+     * JSON file containing the Bulk request items, decompressed while it is loaded when it is compressed with gzip,
+     * deflate, LZ4 or Zstandard
      */
     String dataFile() default "";
+
+    /**
+     * Format of the data file: JSON lines or SMILE documents separated by 0xFF bytes
+     */
+    XContentType contentType() default XContentType.JSON;
+
+    /**
+     * Maximum number of actions per bulk request
+     */
+    int bulkActions() default 1000;
+
+    /**
+     * Maximum size of a bulk request, e.g. "5mb"
+     */
+    String bulkSize() default "5mb";
+
+    /**
+     * Number of bulk requests in flight while the data file is read, 0 to send them one after the other
+     */
+    int concurrentRequests() default 1;
+
+    /**
+     * Interval at which pending bulk items are sent whatever their number and size, e.g. "1s". Default to none.
+     */
+    String flushInterval() default "";
+
+    /**
+     * Initial delay of the exponential backoff used to retry the bulk items rejected by a busy node
+     */
+    String backoffDelay() default "50ms";
+
+    /**
+     * Maximum number of retries of the bulk items rejected by a busy node, 0 to fail on the first rejection
+     */
+    int backoffRetries() default 8;
+
+    /**
+     * Disables the periodic refresh, the synchronous translog and the replicas of the indices while the data file is
+     * loaded, the original settings are restored afterwards
+     */
+    boolean optimizedIndexing() default false;
+
+    /**
+     * Maximum number of segments per shard the indices that received documents are force-merged to once the data file
+     * is loaded, default to 0 (no force merge)
+     */
+    int forceMergeSegments() default 0;
+
+    /**
+     * Wait for the merges running in the background after the force merge (default to true)
+     */
+    boolean waitForMerges() default true;
 }
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package com.github.tlrx.elasticsearch.test.annotations;
+
+import com.github.tlrx.elasticsearch.test.node.StorageMode;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * ElasticsearchCluster Annotation, used to start a cluster of Elasticsearch nodes.<br/>
+ * <br/>
+ * The annotation is placed on the test Class: the nodes are started concurrently before the tests and the cluster is
+ * green when the first test runs. Each node is registered under its name ("&lt;cluster name&gt;-data-0",
+ * "&lt;cluster name&gt;-master-0", "&lt;cluster name&gt;-coordinating-0"...) so that it can be used as the nodeName
+ * of the other annotations.
+ * <br/>
+ * The annotation can also be placed on Class attributes of type
+ * {@link com.github.tlrx.elasticsearch.test.node.EmbeddedCluster}, to get the cluster, or of type
+ * {@link org.elasticsearch.client.Client}, to get a client sending requests to the nodes in turn.
+ * <br/>
+ *
+ * @author tlrx
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+public @interface ElasticsearchCluster {
+
+    /**
+     * Default cluster name
+     */
+    public static final String DEFAULT_CLUSTER_NAME = "elasticsearch-test-multi-node-cluster";
+
+    /**
+     * The cluster's name, default to "elasticsearch-test-multi-node-cluster"
+     */
+    String name() default DEFAULT_CLUSTER_NAME;
+
+    /**
+     * The number of dedicated master nodes, default to 0: data nodes are then master eligible
+     */
+    int masterNodes() default 0;
+
+    /**
+     * The number of data nodes, default to 3
+     */
+    int dataNodes() default 3;
+
+    /**
+     * The number of coordinating only nodes, default to 0
+     */
+    int coordinatingNodes() default 0;
+
+    /**
+     * Settings of all the nodes, defined with annotations
+     */
+    ElasticsearchSetting[] settings() default {};
+
+    /**
+     * Storage of the nodes' home, data and logs directories, default to {@link StorageMode#DISK}
+     */
+    StorageMode storage() default StorageMode.DISK;
+}
@@ -61,4 +61,15 @@ public @interface ElasticsearchIndex {
      * Delete all documents in index after test execution (default to false)
      */
     boolean cleanAfter() default false;
+
+    /**
+     * Maximum number of segments per shard the index is force-merged to once the data of an
+     * {@link ElasticsearchBulkRequest} is loaded in it. Default to 0 (no force merge)
+     */
+    int forceMergeSegments() default 0;
+
+    /**
+     * Wait for the merges running in the background after the force merge (default to true)
+     */
+    boolean waitForMerges() default true;
 }
@@ -3,6 +3,8 @@
  */
 package com.github.tlrx.elasticsearch.test.annotations;
 
+import com.github.tlrx.elasticsearch.test.node.StorageMode;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -38,7 +40,7 @@ public @interface ElasticsearchNode {
     public static final String DEFAULT_CLUSTER_NAME = "elasticsearch-test-cluster";
 
     /**
-     * The cluster's name, default to "elasticsearch-test-cluster"
+     * The cluster's name, default to "elasticsearch-test-cluster" followed by an identifier of the JVM
      */
     String clusterName() default DEFAULT_CLUSTER_NAME;
 
@@ -62,4 +64,24 @@ public @interface ElasticsearchNode {
      * /config/elasticsearch.yml is loaded.
      */
     String configFile() default "config/elasticsearch.yml";
+
+    /**
+     * Storage of the node's home, data and logs directories, default to {@link StorageMode#DISK}.
+     * {@link StorageMode#MEMORY} places them on a memory-backed file system (/dev/shm) when one is available.
+     */
+    StorageMode storage() default StorageMode.DISK;
+
+    /**
+     * Start the node on a background thread as soon as the test class starts, default to "false".
+     * <br/>
+     * By default, a node declared on a test class is started on first use: by the first request sent with an injected
+     * client, or when a {@link org.elasticsearch.node.Node} field is injected.
+     */
+    boolean warmUp() default false;
+
+    /**
+     * Name of the {@link com.github.tlrx.elasticsearch.test.node.NodeProfile} of the node and of its indices, e.g.
+     * "fast". Default to the profile selected with the system property "elasticsearch.test.profile".
+     */
+    String profile() default "";
 }
@@ -18,7 +18,7 @@ import java.lang.annotation.Target;
 public @interface ElasticsearchTransportClient {
 
     /**
-     * The cluster's name, default to "elasticsearch-test-cluster"
+     * The cluster's name, default to the default cluster name of {@link ElasticsearchNode}
      */
     String clusterName() default ElasticsearchNode.DEFAULT_CLUSTER_NAME;
 
@@ -0,0 +1,276 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AsyncDirectoryDeleter deletes node directories in the background.
+ * <br/>
+ * A directory is first renamed to a tombstone next to it, so that its name can be reused immediately, then deleted
+ * by a daemon thread that nobody waits on. Pending deletions are drained when the JVM exits. Failures are logged, and
+ * the number of files and bytes deleted and the time spent deleting are available with {@link #stats()}.
+ */
+public class AsyncDirectoryDeleter {
+
+    private final static Logger LOGGER = Logger.getLogger(AsyncDirectoryDeleter.class.getName());
+
+    static final String TOMBSTONE_PREFIX = ".tombstone-";
+    private static final TimeValue DRAIN_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+    private static final AsyncDirectoryDeleter INSTANCE = new AsyncDirectoryDeleter();
+
+    private final ExecutorService executor;
+    private final Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tombstones = new AtomicInteger();
+
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    AsyncDirectoryDeleter() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "elasticsearch-test-directory-deleter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(DRAIN_TIMEOUT), "elasticsearch-test-directory-deleter-shutdown"));
+        } catch (IllegalStateException e) {
+            // First used while the JVM exits, the node registry drains the deleter
+        }
+    }
+
+    /**
+     * @return the JVM-wide deleter
+     */
+    public static AsyncDirectoryDeleter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Renames a directory to a tombstone and deletes it in the background
+     *
+     * @param directory the directory to delete
+     */
+    public void delete(Path directory) {
+        delete(directory, directory.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Renames a directory to a tombstone in another directory of the same file system and deletes it in the background
+     *
+     * @param directory the directory to delete
+     * @param parent    the directory of the tombstone
+     */
+    void delete(Path directory, Path parent) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Path target = directory;
+        Path tombstone = parent.resolve(TOMBSTONE_PREFIX + tombstones.incrementAndGet() + "-" + directory.getFileName());
+        try {
+            target = Files.move(directory, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.log(Level.FINE, "Unable to rename [" + directory + "], deleting it in place", e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to rename [" + directory + "], deleting it in place", e);
+        }
+
+        final Path deleted = target;
+        pending.add(executor.submit(() -> deleteRecursively(deleted)));
+        pending.removeIf(Future::isDone);
+    }
+
+    /**
+     * Waits for the pending deletions to complete
+     *
+     * @param timeout the maximum time to wait
+     */
+    public void drain(TimeValue timeout) {
+        long deadline = System.nanoTime() + timeout.nanos();
+        Future<?> future;
+        while ((future = pending.poll()) != null) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Directory deletion failed", e.getCause());
+            } catch (TimeoutException e) {
+                LOGGER.warning("Pending directory deletions did not complete within " + timeout);
+                return;
+            }
+        }
+        if (files.get() > 0) {
+            LOGGER.fine("Directory deleter: " + stats());
+        }
+    }
+
+    /**
+     * Recursively deletes a directory, counting the files and bytes deleted
+     */
+    void deleteRecursively(Path directory) {
+        long start = System.nanoTime();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    files.incrementAndGet();
+                    bytes.addAndGet(attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    failures.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Unable to delete [" + file + "]", exc);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        failures.incrementAndGet();
+                        LOGGER.log(Level.WARNING, "Unable to delete [" + dir + "]", exc);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            directories.incrementAndGet();
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Unable to delete directory [" + directory + "]", e);
+        } finally {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the current deleter metrics
+     */
+    public Stats stats() {
+        pending.removeIf(Future::isDone);
+        return new Stats(directories.get(), files.get(), bytes.get(), nanos.get(), failures.get(), pending.size());
+    }
+
+    /**
+     * Metrics of the deleter
+     */
+    public static class Stats {
+
+        private final long directories;
+        private final long files;
+        private final long bytes;
+        private final long nanos;
+        private final long failures;
+        private final int pending;
+
+        Stats(long directories, long files, long bytes, long nanos, long failures, int pending) {
+            this.directories = directories;
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.failures = failures;
+            this.pending = pending;
+        }
+
+        /**
+         * @return the number of directories deleted
+         */
+        public long getDirectories() {
+            return directories;
+        }
+
+        /**
+         * @return the number of files deleted
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the number of bytes deleted
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the time spent deleting
+         */
+        public TimeValue getTime() {
+            return TimeValue.timeValueNanos(nanos);
+        }
+
+        /**
+         * @return the number of files or directories that could not be deleted
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the number of deletions not completed yet
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        @Override
+        public String toString() {
+            return "stats [" +
+                    "directories=" + directories +
+                    ", files=" + files +
+                    ", bytes=" + new ByteSizeValue(bytes) +
+                    ", time=" + getTime() +
+                    ", failures=" + failures +
+                    ", pending=" + pending +
+                    ']';
+        }
+    }
+}
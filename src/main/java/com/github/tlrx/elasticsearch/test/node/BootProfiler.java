@@ -0,0 +1,274 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BootProfiler records how long each phase of an embedded node startup takes.
+ * <br/>
+ * Each boot is logged with the time of its phases, and the phases are aggregated over all the nodes started by the
+ * JVM. When the JVM exits, the aggregated phases and the phases of every boot are logged and written as JSON to
+ * boot-profile-&lt;fork id&gt;.json in the base directory of {@link NodeDirectories}.
+ */
+public class BootProfiler {
+
+    private final static Logger LOGGER = Logger.getLogger(BootProfiler.class.getName());
+
+    private static final String DEFAULT_BASE_PATH = "./target/elasticsearch-test";
+
+    private static final BootProfiler INSTANCE = new BootProfiler();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::report, "elasticsearch-test-boot-profiler"));
+    }
+
+    /**
+     * Phases of a node startup
+     */
+    public enum Phase {
+
+        /**
+         * Allocation of the node directories and preparation of the settings and environment
+         */
+        PREPARE_SETTINGS("prepare_settings"),
+
+        /**
+         * Construction of the node: loading of modules and plugins, creation of the services
+         */
+        CONSTRUCT("construct"),
+
+        /**
+         * Start of the services: transport binding, discovery, cluster state recovery
+         */
+        START("start"),
+
+        /**
+         * Creation of the default index template
+         */
+        INDEX_DEFAULTS("index_defaults"),
+
+        /**
+         * Wait for the cluster to be ready (yellow health), measured by the client providers
+         */
+        WAIT_FOR_READY("wait_for_ready"),
+
+        /**
+         * Deletion of the indices and templates of a reused node
+         */
+        RESET("reset");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private final Map<Phase, long[]> totals = new EnumMap<>(Phase.class);
+    private final List<Profile> profiles = new ArrayList<>();
+
+    BootProfiler() {
+    }
+
+    /**
+     * @return the JVM-wide profiler
+     */
+    public static BootProfiler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts profiling the startup of a node
+     *
+     * @param nodeName the name of the node
+     * @return the profile, its phases are recorded with {@link Profile#end(Phase)}
+     */
+    public Profile start(String nodeName) {
+        return new Profile(nodeName);
+    }
+
+    /**
+     * Records the time of a phase which is not part of a boot profile
+     *
+     * @param phase the phase
+     * @param nanos the time spent in the phase, in nanoseconds
+     */
+    public synchronized void record(Phase phase, long nanos) {
+        long[] total = totals.computeIfAbsent(phase, p -> new long[3]);
+        total[0]++;
+        total[1] += nanos;
+        total[2] = Math.max(total[2], nanos);
+    }
+
+    private synchronized void complete(Profile profile) {
+        profiles.add(profile);
+        for (Map.Entry<Phase, Long> phase : profile.phases.entrySet()) {
+            record(phase.getKey(), phase.getValue());
+        }
+        LOGGER.info("Node [" + profile.nodeName + "] started in " + TimeValue.timeValueNanos(profile.total()) + " " + profile);
+    }
+
+    /**
+     * @return the aggregated phases as a JSON document
+     */
+    public synchronized String toJson() {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder().prettyPrint();
+            toXContent(builder);
+            return builder.string();
+        } catch (IOException e) {
+            return "{}";
+        }
+    }
+
+    private void toXContent(XContentBuilder builder) throws IOException {
+        builder.startObject();
+        builder.field("fork", NodeDirectories.forkId());
+        builder.field("boots", profiles.size());
+        builder.startObject("phases");
+        for (Map.Entry<Phase, long[]> total : totals.entrySet()) {
+            long[] values = total.getValue();
+            builder.startObject(total.getKey().label())
+                    .field("count", values[0])
+                    .field("total_ms", TimeValue.timeValueNanos(values[1]).millis())
+                    .field("avg_ms", TimeValue.timeValueNanos(values[1] / values[0]).millis())
+                    .field("max_ms", TimeValue.timeValueNanos(values[2]).millis())
+                    .endObject();
+        }
+        builder.endObject();
+        builder.startArray("nodes");
+        for (Profile profile : profiles) {
+            builder.startObject()
+                    .field("node", profile.nodeName)
+                    .field("total_ms", TimeValue.timeValueNanos(profile.total()).millis());
+            for (Map.Entry<Phase, Long> phase : profile.phases.entrySet()) {
+                builder.field(phase.getKey().label() + "_ms", TimeValue.timeValueNanos(phase.getValue()).millis());
+            }
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+    }
+
+    /**
+     * Logs the aggregated phases and writes them to the profile file, used at JVM exit
+     */
+    private synchronized void report() {
+        if (totals.isEmpty()) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder("Node boot profile:");
+        for (Map.Entry<Phase, long[]> total : totals.entrySet()) {
+            long[] values = total.getValue();
+            summary.append(' ').append(total.getKey().label())
+                    .append("=[count=").append(values[0])
+                    .append(", total=").append(TimeValue.timeValueNanos(values[1]))
+                    .append(", max=").append(TimeValue.timeValueNanos(values[2]))
+                    .append(']');
+        }
+        LOGGER.info(summary.toString());
+
+        Path base = Paths.get(System.getProperty(NodeDirectories.BASE_PATH_PROPERTY, DEFAULT_BASE_PATH));
+        Path file = base.resolve("boot-profile-" + NodeDirectories.forkId() + ".json");
+        try {
+            Files.createDirectories(base);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                XContentBuilder builder = XContentFactory.jsonBuilder(out).prettyPrint();
+                toXContent(builder);
+                builder.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write boot profile [" + file + "]", e);
+        }
+    }
+
+    /**
+     * Phases of a node startup
+     */
+    public class Profile {
+
+        private final String nodeName;
+        private final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+        private long last = System.nanoTime();
+
+        Profile(String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        /**
+         * Ends a phase, which started when the previous phase ended
+         *
+         * @param phase the phase
+         */
+        public void end(Phase phase) {
+            long now = System.nanoTime();
+            phases.merge(phase, now - last, Long::sum);
+            last = now;
+        }
+
+        /**
+         * Ends the profile, logs it and adds its phases to the aggregated phases
+         */
+        public void complete() {
+            BootProfiler.this.complete(this);
+        }
+
+        /**
+         * @return the total time of the phases, in nanoseconds
+         */
+        public long total() {
+            long total = 0;
+            for (long nanos : phases.values()) {
+                total += nanos;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("[");
+            for (Map.Entry<Phase, Long> phase : phases.entrySet()) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(phase.getKey().label()).append('=').append(TimeValue.timeValueNanos(phase.getValue()));
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.transport.Netty4Plugin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EmbeddedCluster starts a cluster of local nodes in the current JVM.
+ * <br/>
+ * The cluster is made of dedicated master nodes, data nodes (master eligible when there are no dedicated master nodes)
+ * and coordinating only nodes. All the nodes are leased at once from the {@link NodeRegistry} and started
+ * concurrently, so that starting the cluster costs about the startup time of a single node. Each node gets its own
+ * directories and transport port; a cluster with the same name and topology gets the same ports again, so that its
+ * nodes are reused by the registry.
+ * <pre>
+ * EmbeddedCluster cluster = new EmbeddedCluster("my-cluster")
+ *                                   .withDataNodes(3)
+ *                                   .withCoordinatingNodes(1)
+ *                                   .start();
+ * cluster.client().prepareIndex(...);
+ * cluster.close();
+ * </pre>
+ */
+public class EmbeddedCluster implements AutoCloseable {
+
+    private static final TimeValue HEALTH_TIMEOUT = TimeValue.timeValueMinutes(1);
+
+    /**
+     * Transport ports allocated per cluster name and topology
+     */
+    private static final Map<String, List<Integer>> PORTS = new HashMap<>();
+
+    private final String clusterName;
+    private int masterNodes = 0;
+    private int dataNodes = 3;
+    private int coordinatingNodes = 0;
+    private Settings settings = Settings.EMPTY;
+    private final Set<Class<? extends Plugin>> plugins = new LinkedHashSet<>();
+    private StorageMode storage = StorageMode.DISK;
+    private NodeProfile profile = NodeProfile.defaultProfile();
+
+    private List<NodeLease> leases;
+    private List<Client> clients;
+    private Client client;
+
+    public EmbeddedCluster(String clusterName) {
+        Preconditions.checkNotNull(clusterName, "No cluster name specified");
+        this.clusterName = clusterName;
+        this.plugins.add(Netty4Plugin.class);
+    }
+
+    /**
+     * @param masterNodes the number of dedicated master nodes, default to 0: data nodes are then master eligible
+     */
+    public EmbeddedCluster withMasterNodes(int masterNodes) {
+        Preconditions.checkArgument(masterNodes >= 0, "Number of master nodes must be positive");
+        this.masterNodes = masterNodes;
+        return this;
+    }
+
+    /**
+     * @param dataNodes the number of data nodes, default to 3
+     */
+    public EmbeddedCluster withDataNodes(int dataNodes) {
+        Preconditions.checkArgument(dataNodes >= 0, "Number of data nodes must be positive");
+        this.dataNodes = dataNodes;
+        return this;
+    }
+
+    /**
+     * @param coordinatingNodes the number of coordinating only nodes, default to 0
+     */
+    public EmbeddedCluster withCoordinatingNodes(int coordinatingNodes) {
+        Preconditions.checkArgument(coordinatingNodes >= 0, "Number of coordinating nodes must be positive");
+        this.coordinatingNodes = coordinatingNodes;
+        return this;
+    }
+
+    /**
+     * @param settings settings applied to all the nodes
+     */
+    public EmbeddedCluster withSettings(Settings settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * @param plugins classpath plugins of all the nodes
+     */
+    public EmbeddedCluster withPlugins(Collection<Class<? extends Plugin>> plugins) {
+        this.plugins.addAll(plugins);
+        return this;
+    }
+
+    /**
+     * @param storage the storage of the node directories
+     */
+    public EmbeddedCluster withStorage(StorageMode storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @param profile the profile of the nodes and of their indices
+     */
+    public EmbeddedCluster withProfile(NodeProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Starts the nodes and waits for the cluster to be green
+     *
+     * @return the started cluster
+     */
+    public synchronized EmbeddedCluster start() {
+        if (leases != null) {
+            return this;
+        }
+        int masterEligibleNodes = (masterNodes > 0) ? masterNodes : dataNodes;
+        Preconditions.checkArgument(masterEligibleNodes > 0, "Cluster needs at least one master or data node");
+
+        List<Settings> nodeSettings = buildNodeSettings(masterEligibleNodes);
+        leases = NodeRegistry.getInstance().acquireAll(nodeSettings, plugins, storage, profile);
+
+        clients = new ArrayList<>(leases.size());
+        for (NodeLease lease : leases) {
+            clients.add(lease.client());
+        }
+        client = new RoundRobinClient(clients);
+
+        // Wait once for all the nodes to join and for the cluster to be green
+        long start = System.nanoTime();
+        ClusterHealthResponse health = clients.get(0).admin().cluster().prepareHealth()
+                .setWaitForNodes(String.valueOf(leases.size()))
+                .setWaitForGreenStatus()
+                .setTimeout(HEALTH_TIMEOUT)
+                .get();
+        BootProfiler.getInstance().record(BootProfiler.Phase.WAIT_FOR_READY, System.nanoTime() - start);
+        if (health.isTimedOut()) {
+            close();
+            throw new EsSetupRuntimeException("Cluster [" + clusterName + "] is not green after " + HEALTH_TIMEOUT
+                    + ": " + health.getNumberOfNodes() + " nodes, status " + health.getStatus());
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the cluster is started
+     */
+    public synchronized boolean isStarted() {
+        return leases != null;
+    }
+
+    /**
+     * @return the name of the cluster
+     */
+    public String clusterName() {
+        return clusterName;
+    }
+
+    /**
+     * @return the leases of the nodes, dedicated master nodes first, then data nodes and coordinating nodes
+     */
+    public List<NodeLease> leases() {
+        checkStarted();
+        return leases;
+    }
+
+    /**
+     * @return the nodes, dedicated master nodes first, then data nodes and coordinating nodes
+     */
+    public List<Node> nodes() {
+        checkStarted();
+        List<Node> nodes = new ArrayList<>(leases.size());
+        for (NodeLease lease : leases) {
+            nodes.add(lease.node());
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the clients of the nodes, dedicated master nodes first, then data nodes and coordinating nodes
+     */
+    public List<Client> clients() {
+        checkStarted();
+        return clients;
+    }
+
+    /**
+     * @return a client sending each request to the next node of the cluster
+     */
+    public Client client() {
+        checkStarted();
+        return client;
+    }
+
+    /**
+     * Releases the nodes, they are stopped by the {@link NodeRegistry} once they are not used anymore
+     */
+    @Override
+    public synchronized void close() {
+        if (leases != null) {
+            for (NodeLease lease : leases) {
+                lease.release();
+            }
+            leases = null;
+            clients = null;
+            client = null;
+        }
+    }
+
+    private synchronized void checkStarted() {
+        Preconditions.checkState(leases != null, "Cluster [" + clusterName + "] is not started");
+    }
+
+    /**
+     * Builds the settings of each node: roles, transport port and unicast discovery of the other nodes
+     */
+    private List<Settings> buildNodeSettings(int masterEligibleNodes) {
+        int count = masterNodes + dataNodes + coordinatingNodes;
+        List<Integer> ports = ports(count);
+
+        StringBuilder unicastHosts = new StringBuilder();
+        for (int port : ports) {
+            if (unicastHosts.length() > 0) {
+                unicastHosts.append(',');
+            }
+            unicastHosts.append("127.0.0.1:").append(port);
+        }
+
+        List<Settings> nodeSettings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String role;
+            boolean master, data;
+            if (i < masterNodes) {
+                role = "master-" + i;
+                master = true;
+                data = false;
+            } else if (i < masterNodes + dataNodes) {
+                role = "data-" + (i - masterNodes);
+                master = (masterNodes == 0);
+                data = true;
+            } else {
+                role = "coordinating-" + (i - masterNodes - dataNodes);
+                master = false;
+                data = false;
+            }
+            nodeSettings.add(Settings.builder()
+                    .put("node.name", clusterName + "-" + role)
+                    .put("node.master", master)
+                    .put("node.data", data)
+                    .put("node.ingest", master || data)
+                    .put("cluster.name", clusterName)
+                    .put("network.host", "127.0.0.1")
+                    .put("transport.type", "netty4")
+                    .put("transport.tcp.port", ports.get(i))
+                    .put("http.enabled", false)
+                    .put("discovery.zen.ping.unicast.hosts", unicastHosts.toString())
+                    .put("discovery.zen.minimum_master_nodes", masterEligibleNodes / 2 + 1)
+                    .put(settings)
+                    .build());
+        }
+        return nodeSettings;
+    }
+
+    /**
+     * Allocates free transport ports, the same ports are returned for the same cluster name and topology
+     */
+    private List<Integer> ports(int count) {
+        String key = clusterName + "/" + masterNodes + "/" + dataNodes + "/" + coordinatingNodes;
+        synchronized (PORTS) {
+            List<Integer> ports = PORTS.get(key);
+            if (ports == null) {
+                ports = new ArrayList<>(count);
+                List<ServerSocket> sockets = new ArrayList<>(count);
+                try {
+                    // Keep the sockets open until all the ports are found so that the same port is not returned twice
+                    for (int i = 0; i < count; i++) {
+                        ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+                        sockets.add(socket);
+                        ports.add(socket.getLocalPort());
+                    }
+                } catch (IOException e) {
+                    throw new EsSetupRuntimeException("Unable to find free ports for cluster [" + clusterName + "]", e);
+                } finally {
+                    for (ServerSocket socket : sockets) {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+                PORTS.put(key, ports);
+            }
+            return ports;
+        }
+    }
+}
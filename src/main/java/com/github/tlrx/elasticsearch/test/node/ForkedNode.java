@@ -0,0 +1,537 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.node.InternalSettingsPreparer;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.transport.Netty4Plugin;
+import org.elasticsearch.transport.TransportService;
+import org.elasticsearch.transport.client.PreBuiltTransportClient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * ForkedNode starts a node in a child JVM, launched from the classpath of the current JVM with its own heap settings,
+ * so that the garbage collections, merges and threads of the node do not interfere with the tests. The tests talk to
+ * the node through a {@link TransportClient} connected to the transport port chosen by the child.
+ * <br/>
+ * Child JVMs are shared: a ForkedNode with the same settings, plugins, storage, profile and JVM arguments as a
+ * previously closed one gets the same child back, with all its indices and templates deleted. The child JVMs are
+ * stopped when the current JVM exits, and a child stops by itself if the current JVM dies since it watches its
+ * standard input.
+ * <pre>
+ * ForkedNode node = new ForkedNode("my-node")
+ *                          .withJvmArgs("-Xms1g", "-Xmx1g")
+ *                          .start();
+ * node.client().prepareIndex(...);
+ * node.close();
+ * </pre>
+ */
+public class ForkedNode implements AutoCloseable {
+
+    private final static Logger LOGGER = Logger.getLogger(ForkedNode.class.getName());
+
+    /**
+     * Default JVM arguments of the child JVM
+     */
+    public static final List<String> DEFAULT_JVM_ARGS = Arrays.asList("-Xms512m", "-Xmx512m");
+
+    /**
+     * Line printed by the child JVM once its node is started, followed by the transport port
+     */
+    static final String READY_LINE = "elasticsearch-test-forked-node-ready:";
+
+    private static final TimeValue START_TIMEOUT = TimeValue.timeValueMinutes(2);
+    private static final TimeValue STOP_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+    /**
+     * Child JVMs per configuration
+     */
+    private static final Map<List<Object>, Child> CHILDREN = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(ForkedNode::shutdown, "elasticsearch-test-forked-node-shutdown"));
+    }
+
+    private final String nodeName;
+    private Settings settings = Settings.EMPTY;
+    private final Set<Class<? extends Plugin>> plugins = new LinkedHashSet<>();
+    private StorageMode storage = StorageMode.DISK;
+    private NodeProfile profile = NodeProfile.defaultProfile();
+    private List<String> jvmArgs = DEFAULT_JVM_ARGS;
+
+    private Child child;
+
+    public ForkedNode(String nodeName) {
+        Preconditions.checkNotNull(nodeName, "No node name specified");
+        this.nodeName = nodeName;
+        this.plugins.add(Netty4Plugin.class);
+    }
+
+    /**
+     * @param settings settings of the node
+     */
+    public ForkedNode withSettings(Settings settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * @param plugins classpath plugins of the node
+     */
+    public ForkedNode withPlugins(Collection<Class<? extends Plugin>> plugins) {
+        this.plugins.addAll(plugins);
+        return this;
+    }
+
+    /**
+     * @param storage the storage of the node directories
+     */
+    public ForkedNode withStorage(StorageMode storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @param profile the profile of the node and of its indices
+     */
+    public ForkedNode withProfile(NodeProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * @param jvmArgs arguments of the child JVM, e.g. its heap and garbage collector settings, default to
+     *                {@link #DEFAULT_JVM_ARGS}
+     */
+    public ForkedNode withJvmArgs(String... jvmArgs) {
+        this.jvmArgs = Arrays.asList(jvmArgs);
+        return this;
+    }
+
+    /**
+     * Starts the child JVM, or gets back a child JVM with the same configuration
+     *
+     * @return the started node
+     */
+    public synchronized ForkedNode start() {
+        if (child != null) {
+            return this;
+        }
+        Settings nodeSettings = buildNodeSettings();
+        List<String> pluginNames = new ArrayList<>(plugins.size());
+        for (Class<? extends Plugin> plugin : plugins) {
+            pluginNames.add(plugin.getName());
+        }
+        List<Object> key = Arrays.asList(nodeSettings, pluginNames, storage, profile, jvmArgs);
+
+        // The child is only looked up or declared under the lock, it is started or reset outside of it so that
+        // nodes with other configurations are not blocked by a boot
+        Child started;
+        Child exited = null;
+        synchronized (CHILDREN) {
+            started = CHILDREN.get(key);
+            if ((started == null) || started.hasExited()) {
+                exited = started;
+                started = new Child(nodeName, nodeSettings, pluginNames, storage, profile, jvmArgs);
+                CHILDREN.put(key, started);
+            }
+            started.retain();
+        }
+        if (exited != null) {
+            LOGGER.warning("JVM of node [" + nodeName + "] exited, starting a new one");
+            exited.stop();
+        }
+
+        try {
+            started.ensureStarted();
+        } catch (RuntimeException e) {
+            synchronized (CHILDREN) {
+                started.refCount--;
+                if (CHILDREN.get(key) == started) {
+                    CHILDREN.remove(key);
+                }
+            }
+            throw e;
+        }
+        child = started;
+        return this;
+    }
+
+    /**
+     * @return true if the node is started
+     */
+    public synchronized boolean isStarted() {
+        return child != null;
+    }
+
+    /**
+     * @return the name of the node
+     */
+    public String nodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return the transport address of the node
+     */
+    public synchronized TransportAddress transportAddress() {
+        checkStarted();
+        return child.address;
+    }
+
+    /**
+     * @return a transport client connected to the node
+     */
+    public synchronized Client client() {
+        checkStarted();
+        return child.client;
+    }
+
+    /**
+     * Releases the child JVM, it keeps running to be reused until the current JVM exits
+     */
+    @Override
+    public synchronized void close() {
+        if (child != null) {
+            synchronized (CHILDREN) {
+                child.release();
+            }
+            child = null;
+        }
+    }
+
+    /**
+     * Stops all the child JVMs, used at JVM exit
+     */
+    public static void shutdown() {
+        List<Child> all;
+        synchronized (CHILDREN) {
+            all = new ArrayList<>(CHILDREN.values());
+            CHILDREN.clear();
+        }
+        for (Child child : all) {
+            child.stop();
+        }
+    }
+
+    private synchronized void checkStarted() {
+        Preconditions.checkState(child != null, "Node [" + nodeName + "] is not started");
+    }
+
+    private Settings buildNodeSettings() {
+        return Settings.builder()
+                .put("node.name", nodeName)
+                .put("cluster.name", "forked-cluster-test-" + NodeDirectories.forkId())
+                .put("network.host", "127.0.0.1")
+                .put("transport.type", "netty4")
+                .put("transport.tcp.port", 0)
+                .put("http.type", "netty4")
+                .put("http.enabled", false)
+                .put(settings)
+                .build();
+    }
+
+    /**
+     * A child JVM running a node
+     */
+    private static class Child {
+
+        private final String nodeName;
+        private final Settings settings;
+        private final List<String> plugins;
+        private final StorageMode storage;
+        private final NodeProfile profile;
+        private final List<String> jvmArgs;
+
+        private NodeDirectories directories;
+        private volatile Process process;
+        private TransportAddress address;
+        private TransportClient client;
+
+        /**
+         * Number of leases, guarded by {@link #CHILDREN}
+         */
+        private int refCount = 0;
+        private volatile boolean resetOnNextLease = false;
+
+        Child(String nodeName, Settings settings, List<String> plugins, StorageMode storage, NodeProfile profile,
+              List<String> jvmArgs) {
+            this.nodeName = nodeName;
+            this.settings = settings;
+            this.plugins = plugins;
+            this.storage = storage;
+            this.profile = profile;
+            this.jvmArgs = jvmArgs;
+        }
+
+        /**
+         * Must be called while holding the {@link #CHILDREN} lock
+         */
+        void retain() {
+            refCount++;
+        }
+
+        /**
+         * Must be called while holding the {@link #CHILDREN} lock
+         */
+        void release() {
+            if (--refCount == 0) {
+                resetOnNextLease = true;
+            }
+        }
+
+        /**
+         * Launches the JVM on the first lease, deletes the indices and templates of the previous leases on reuse
+         */
+        synchronized void ensureStarted() {
+            if (process == null) {
+                launch();
+            } else if (hasExited()) {
+                // The launch failed in another thread, or the JVM exited since
+                throw new EsSetupRuntimeException("JVM of node [" + nodeName + "] exited");
+            } else if (resetOnNextLease) {
+                client.admin().indices().prepareDelete("_all").get();
+                client.admin().indices().prepareDeleteTemplate("*").get();
+                putIndexDefaults();
+            }
+            resetOnNextLease = false;
+        }
+
+        private void launch() {
+            directories = NodeDirectories.allocate(nodeName, storage);
+
+            Settings.Builder nodeSettings = Settings.builder()
+                    .put(profile.nodeSettings())
+                    .put(storage.nodeSettings())
+                    .put(settings);
+            directories.applyTo(nodeSettings);
+            Path settingsFile = directories.home().resolve("forked-node.json");
+            writeSettings(nodeSettings.build(), settingsFile);
+
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ForkedNode.class.getName());
+            command.add(settingsFile.toString());
+            command.addAll(plugins);
+
+            long start = System.nanoTime();
+            try {
+                process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            } catch (IOException e) {
+                directories.delete();
+                throw new EsSetupRuntimeException("Unable to launch the JVM of node [" + nodeName + "]", e);
+            }
+            try {
+                int port = awaitPort();
+                address = new TransportAddress(InetAddress.getLoopbackAddress(), port);
+                client = new PreBuiltTransportClient(Settings.builder()
+                        .put("cluster.name", settings.get("cluster.name"))
+                        .build());
+                client.addTransportAddress(address);
+                putIndexDefaults();
+            } catch (RuntimeException e) {
+                stop();
+                throw e;
+            }
+            LOGGER.info("Node [" + nodeName + "] started in a child JVM in " + TimeValue.timeValueNanos(System.nanoTime() - start)
+                    + ", transport address [" + address + "]");
+        }
+
+        /**
+         * Forwards the output of the child to the logger until the child prints the transport port
+         */
+        private int awaitPort() {
+            CompletableFuture<Integer> port = new CompletableFuture<>();
+            Thread output = new Thread(() -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith(READY_LINE)) {
+                            port.complete(Integer.valueOf(line.substring(READY_LINE.length())));
+                        } else {
+                            LOGGER.info("[" + nodeName + "] " + line);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Output of node [" + nodeName + "] closed", e);
+                }
+                port.completeExceptionally(new EsSetupRuntimeException("JVM of node [" + nodeName + "] exited before the node started"));
+            }, "elasticsearch-test-forked-node-output");
+            output.setDaemon(true);
+            output.start();
+
+            try {
+                return port.get(START_TIMEOUT.millis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EsSetupRuntimeException("Interrupted while starting node [" + nodeName + "]", e);
+            } catch (ExecutionException e) {
+                throw (RuntimeException) e.getCause();
+            } catch (TimeoutException e) {
+                throw new EsSetupRuntimeException("Node [" + nodeName + "] is not started after " + START_TIMEOUT, e);
+            }
+        }
+
+        private void writeSettings(Settings settings, Path file) {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                XContentBuilder builder = XContentFactory.jsonBuilder(out);
+                builder.startObject();
+                settings.toXContent(builder, new ToXContent.MapParams(singletonMap("flat_settings", "true")));
+                builder.endObject();
+                builder.close();
+            } catch (IOException e) {
+                directories.delete();
+                throw new EsSetupRuntimeException("Unable to write the settings of node [" + nodeName + "]", e);
+            }
+        }
+
+        /**
+         * Puts a template that applies the default index settings of the node to all new indices
+         */
+        private void putIndexDefaults() {
+            Settings indexSettings = Settings.builder()
+                    .put(profile.indexSettings())
+                    .put(storage.indexSettings())
+                    .build();
+            if (!indexSettings.isEmpty()) {
+                client.admin().indices()
+                        .preparePutTemplate(NodeRegistry.DEFAULTS_TEMPLATE)
+                        .setPatterns(singletonList("*"))
+                        .setOrder(Integer.MIN_VALUE)
+                        .setSettings(indexSettings)
+                        .get();
+            }
+        }
+
+        /**
+         * @return true if the JVM has been launched and has exited since, false while it is being launched
+         */
+        boolean hasExited() {
+            Process launched = process;
+            return (launched != null) && !launched.isAlive();
+        }
+
+        /**
+         * Closes the standard input of the child, which then stops its node and exits
+         */
+        synchronized void stop() {
+            if (client != null) {
+                client.close();
+            }
+            if (process == null) {
+                return;
+            }
+            try {
+                process.getOutputStream().close();
+                if (!process.waitFor(STOP_TIMEOUT.millis(), TimeUnit.MILLISECONDS)) {
+                    LOGGER.warning("JVM of node [" + nodeName + "] did not stop within " + STOP_TIMEOUT + ", killing it");
+                    process.destroyForcibly().waitFor();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+            directories.delete();
+        }
+    }
+
+    /**
+     * Entry point of the child JVM: starts the node described by the settings file, prints its transport port and
+     * stops it when the standard input is closed.
+     *
+     * @param args the settings file, followed by the class names of the plugins
+     */
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.builder().loadFromPath(new File(args[0]).toPath()).build();
+        List<Class<? extends Plugin>> plugins = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            plugins.add(Class.forName(args[i]).asSubclass(Plugin.class));
+        }
+
+        Node node = new ChildNode(InternalSettingsPreparer.prepareEnvironment(settings, null), plugins);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                node.close();
+            } catch (IOException e) {
+                // Ignore, the JVM exits
+            }
+        }));
+        node.start();
+
+        TransportAddress address = node.injector().getInstance(TransportService.class).boundAddress().publishAddress();
+        System.out.println(READY_LINE + address.getPort());
+        System.out.flush();
+
+        // Wait for the parent JVM to close the standard input, or to die
+        while (System.in.read() != -1) {
+            // Ignore
+        }
+        System.exit(0);
+    }
+
+    private static class ChildNode extends Node {
+        ChildNode(Environment environment, Collection<Class<? extends Plugin>> classpathPlugins) {
+            super(environment, classpathPlugins);
+        }
+    }
+}
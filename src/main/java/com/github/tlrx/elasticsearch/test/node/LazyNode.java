@@ -0,0 +1,190 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.plugins.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * LazyNode leases a node from the {@link NodeRegistry} the first time it is used.
+ * <br/>
+ * The clients returned by {@link #client()} and {@link #adminClient()} are proxies that start the node on their first
+ * method call, so that test classes which never send a request never start a node. {@link #warmUp()} starts the node
+ * on a background thread, overlapping its startup with other work; the first use then waits for it to complete.
+ * Once {@link #release()} is called, the node and its clients can not be used anymore.
+ */
+public class LazyNode {
+
+    private static final ExecutorService WARM_UP = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "elasticsearch-test-node-warm-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Settings settings;
+    private final Collection<Class<? extends Plugin>> plugins;
+    private final StorageMode storage;
+    private final NodeProfile profile;
+
+    private Future<NodeLease> warmUp;
+    private NodeLease lease;
+    private boolean released;
+
+    public LazyNode(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage) {
+        this(settings, plugins, storage, NodeProfile.defaultProfile());
+    }
+
+    public LazyNode(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage, NodeProfile profile) {
+        this.settings = settings;
+        this.plugins = new ArrayList<>(plugins);
+        this.storage = storage;
+        this.profile = profile;
+    }
+
+    /**
+     * @param lease the lease of an already started node
+     */
+    public LazyNode(NodeLease lease) {
+        this(lease.node().settings(), Collections.emptyList(), StorageMode.DISK);
+        this.lease = lease;
+    }
+
+    /**
+     * Starts the node on a background thread, has no effect if the node is already started or starting
+     *
+     * @throws IllegalStateException if the node has been released
+     */
+    public synchronized void warmUp() {
+        ensureNotReleased();
+        if ((lease == null) && (warmUp == null)) {
+            warmUp = WARM_UP.submit(() -> NodeRegistry.getInstance().acquire(settings, plugins, storage, profile));
+        }
+    }
+
+    /**
+     * @return the node, started on first call
+     * @throws IllegalStateException if the node has been released
+     */
+    public synchronized Node node() {
+        ensureNotReleased();
+        if (lease == null) {
+            if (warmUp != null) {
+                lease = awaitWarmUp();
+            } else {
+                lease = NodeRegistry.getInstance().acquire(settings, plugins, storage, profile);
+            }
+        }
+        return lease.node();
+    }
+
+    /**
+     * @return true if the node has been started or is starting
+     */
+    public synchronized boolean isStarted() {
+        return (lease != null) || (warmUp != null);
+    }
+
+    /**
+     * @return a client which starts the node when first used
+     */
+    public Client client() {
+        return lazyProxy(Client.class, () -> node().client());
+    }
+
+    /**
+     * @return an admin client which starts the node when first used
+     */
+    public AdminClient adminClient() {
+        return lazyProxy(AdminClient.class, () -> node().client().admin());
+    }
+
+    /**
+     * Releases the node if it has been started, waiting for a pending warm-up
+     */
+    public synchronized void release() {
+        if ((lease == null) && (warmUp != null)) {
+            lease = awaitWarmUp();
+        }
+        if (lease != null) {
+            lease.release();
+        }
+        lease = null;
+        warmUp = null;
+        released = true;
+    }
+
+    private void ensureNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Node [" + settings.get("node.name") + "] has been released");
+        }
+    }
+
+    private NodeLease awaitWarmUp() {
+        try {
+            return warmUp.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsSetupRuntimeException("Interrupted while starting node [" + settings.get("node.name") + "]", e);
+        } catch (ExecutionException e) {
+            warmUp = null;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new EsSetupRuntimeException("Unable to start node [" + settings.get("node.name") + "]", e.getCause());
+        }
+    }
+
+    /**
+     * Creates a proxy which resolves its target on the first call of a method not declared by {@link Object}
+     */
+    private <T> T lazyProxy(Class<T> type, Supplier<T> target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "lazy " + type.getSimpleName() + " [node=" + settings.get("node.name") + "]";
+                }
+            }
+            try {
+                return method.invoke(target.get(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * NodeDirectories allocates the home, data and logs directories of an embedded node.
+ * <br/>
+ * Every JVM gets its own fork directory under the base directory (system property {@value #BASE_PATH_PROPERTY},
+ * default to ./target/elasticsearch-test), locked for the lifetime of the JVM by a lock file next to it, and every
+ * node gets its own tree in the fork directory. Test JVMs running in parallel (e.g. Surefire with forkCount > 1) therefore never share data or lock
+ * files. Fork directories left by JVMs that did not exit cleanly are deleted when the first node is allocated.
+ * <br/>
+ * Nodes using the {@link StorageMode#MEMORY} storage are allocated under a memory-backed base directory
+ * (system property {@value #MEMORY_PATH_PROPERTY}, default to /dev/shm/elasticsearch-test).
+ */
+public class NodeDirectories {
+
+    private final static Logger LOGGER = Logger.getLogger(NodeDirectories.class.getName());
+
+    /**
+     * System property used to configure the base directory of the nodes
+     */
+    public static final String BASE_PATH_PROPERTY = "elasticsearch.test.path";
+
+    /**
+     * System property used to configure the base directory of the nodes using the memory storage
+     */
+    public static final String MEMORY_PATH_PROPERTY = "elasticsearch.test.memory_path";
+
+    private static final String DEFAULT_BASE_PATH = "./target/elasticsearch-test";
+    private static final String DEFAULT_MEMORY_PATH = "/dev/shm/elasticsearch-test";
+    private static final String FORK_PREFIX = "fork-";
+    private static final String LOCK_EXTENSION = ".lock";
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final Map<StorageMode, Fork> FORKS = new EnumMap<>(StorageMode.class);
+
+    private final Path home;
+
+    private NodeDirectories(Path home) {
+        this.home = home;
+    }
+
+    /**
+     * Allocates a new directory tree for a node on disk
+     *
+     * @param nodeName the name of the node, used to name its tree
+     * @return the node directories
+     */
+    public static NodeDirectories allocate(String nodeName) {
+        return allocate(nodeName, StorageMode.DISK);
+    }
+
+    /**
+     * Allocates a new directory tree for a node
+     *
+     * @param nodeName the name of the node, used to name its tree
+     * @param storage  the storage of the directories
+     * @return the node directories
+     */
+    public static NodeDirectories allocate(String nodeName, StorageMode storage) {
+        Path forkDirectory = fork(storage).directory;
+        String name = (nodeName != null ? nodeName.replaceAll("[^A-Za-z0-9._-]", "_") : "node") + "-" + COUNTER.incrementAndGet();
+        try {
+            return new NodeDirectories(Files.createDirectories(forkDirectory.resolve(name)).toAbsolutePath());
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException("Unable to create directory for node [" + nodeName + "]", e);
+        }
+    }
+
+    /**
+     * @return the identifier of the current JVM, unique among the JVMs sharing the base directory
+     */
+    public static String forkId() {
+        return fork(StorageMode.DISK).id;
+    }
+
+    /**
+     * @return the home directory of the node
+     */
+    public Path home() {
+        return home;
+    }
+
+    /**
+     * @return the data directory of the node
+     */
+    public Path data() {
+        return home.resolve("data");
+    }
+
+    /**
+     * @return the logs directory of the node
+     */
+    public Path logs() {
+        return home.resolve("logs");
+    }
+
+    /**
+     * Sets the home, data and logs paths of the node
+     *
+     * @param builder the node settings
+     * @return the node settings
+     */
+    public Settings.Builder applyTo(Settings.Builder builder) {
+        return builder.put("path.home", home().toString())
+                .put("path.data", data().toString())
+                .put("path.logs", logs().toString());
+    }
+
+    /**
+     * Deletes the node directory tree in the background, see {@link AsyncDirectoryDeleter}
+     */
+    public void delete() {
+        AsyncDirectoryDeleter.getInstance().delete(home);
+    }
+
+    /**
+     * Recursively delete a directory.
+     * Links are not handled properly.
+     */
+    public static void deleteRecursively(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to delete directory [" + directory + "]", e);
+        }
+    }
+
+    private static synchronized Fork fork(StorageMode storage) {
+        Fork fork = FORKS.get(storage);
+        if (fork == null) {
+            if (storage == StorageMode.MEMORY) {
+                Path base = Paths.get(System.getProperty(MEMORY_PATH_PROPERTY, DEFAULT_MEMORY_PATH));
+                if (isMemoryBacked(base)) {
+                    fork = new Fork(base);
+                    sweep(base, fork.directory);
+                    report(fork.directory);
+                } else {
+                    LOGGER.warning("No memory-backed file system found for [" + base + "], falling back to disk storage");
+                    fork = fork(StorageMode.DISK);
+                }
+            } else {
+                Path base = Paths.get(System.getProperty(BASE_PATH_PROPERTY, DEFAULT_BASE_PATH));
+                fork = new Fork(base);
+                sweep(base, fork.directory);
+            }
+            FORKS.put(storage, fork);
+        }
+        return fork;
+    }
+
+    /**
+     * Checks that the closest existing parent of a directory is on a writable tmpfs/ramfs file system
+     */
+    private static boolean isMemoryBacked(Path directory) {
+        Path existing = directory.toAbsolutePath();
+        while ((existing != null) && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if ((existing == null) || !Files.isWritable(existing)) {
+            return false;
+        }
+        try {
+            String type = Files.getFileStore(existing).type();
+            return "tmpfs".equals(type) || "ramfs".equals(type);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Logs the location and the size limits of the memory-backed storage
+     */
+    private static void report(Path directory) {
+        try {
+            FileStore store = Files.getFileStore(directory);
+            LOGGER.info(String.format("Using memory-backed storage [%s] on %s [%s]: %s usable of %s total",
+                    directory, store.type(), store.name(),
+                    new ByteSizeValue(store.getUsableSpace()), new ByteSizeValue(store.getTotalSpace())));
+        } catch (IOException e) {
+            LOGGER.info("Using memory-backed storage [" + directory + "]");
+        }
+    }
+
+    /**
+     * Deletes the fork directories which are not locked anymore by their JVM. They are moved to the fork directory of
+     * the current JVM before being deleted in the background, so that they are swept again if the JVM dies meanwhile.
+     * A JVM locks its lock file before it creates its fork directory, so a fork directory is never seen unlocked
+     * while its JVM is starting.
+     *
+     * @param base    the base directory of the forks
+     * @param current the fork directory of the current JVM
+     */
+    static void sweep(Path base, Path current) {
+        try (DirectoryStream<Path> forks = Files.newDirectoryStream(base, FORK_PREFIX + "*")) {
+            for (Path forkDirectory : forks) {
+                if (forkDirectory.equals(current) || !Files.isDirectory(forkDirectory)) {
+                    continue;
+                }
+                Path lockFile = lockFile(forkDirectory);
+                boolean stale = false;
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock != null) {
+                        stale = true;
+                        lock.release();
+                    }
+                } catch (OverlappingFileLockException e) {
+                    // Locked by the current JVM
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Unable to check lock of [" + forkDirectory + "]", e);
+                }
+                if (stale) {
+                    LOGGER.info("Deleting stale node directory [" + forkDirectory + "]");
+                    AsyncDirectoryDeleter.getInstance().delete(forkDirectory, current);
+                    try {
+                        Files.deleteIfExists(lockFile);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Unable to delete lock file [" + lockFile + "]", e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to sweep node directories of [" + base + "]", e);
+        }
+    }
+
+    /**
+     * @return the lock file of a fork directory, next to it
+     */
+    static Path lockFile(Path forkDirectory) {
+        return forkDirectory.resolveSibling(forkDirectory.getFileName() + LOCK_EXTENSION);
+    }
+
+    /**
+     * The fork directory of the current JVM, locked until the JVM exits
+     */
+    private static final class Fork {
+
+        private final String id;
+        private final Path directory;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        Fork(Path base) {
+            String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+            this.id = pid + "-" + ManagementFactory.getRuntimeMXBean().getStartTime();
+            try {
+                // Lock first, so that the sweep of another JVM never sees the fork directory unlocked
+                Path forkDirectory = base.resolve(FORK_PREFIX + id);
+                Files.createDirectories(base);
+                this.channel = FileChannel.open(lockFile(forkDirectory), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                this.lock = channel.lock();
+                this.directory = Files.createDirectories(forkDirectory);
+            } catch (IOException e) {
+                throw new EsSetupRuntimeException("Unable to create fork directory in [" + base + "]", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.node.Node;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lease on a node of the {@link NodeRegistry}. The lease must be released once the node is not used anymore.
+ */
+public class NodeLease implements AutoCloseable {
+
+    private final NodeRegistry registry;
+    private final Node node;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    NodeLease(NodeRegistry registry, Node node) {
+        this.registry = registry;
+        this.node = node;
+    }
+
+    /**
+     * @return the leased node
+     */
+    public Node node() {
+        return node;
+    }
+
+    /**
+     * @return a client of the leased node
+     */
+    public Client client() {
+        return node.client();
+    }
+
+    /**
+     * Releases the lease. Releasing a lease more than once has no effect.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            registry.release(node);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
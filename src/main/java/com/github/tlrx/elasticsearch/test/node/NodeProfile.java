@@ -0,0 +1,119 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.common.settings.Settings;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Named set of node and index settings applied to embedded nodes. Settings given explicitly for a node or an index
+ * always take precedence over the settings of its profile.
+ * <br/>
+ * The profile used when none is selected is {@link #DEFAULT}, it can be changed for a whole test JVM with the system
+ * property {@value #PROFILE_PROPERTY} (e.g. -Delasticsearch.test.profile=fast).
+ */
+public enum NodeProfile {
+
+    /**
+     * Elasticsearch defaults: HTTP enabled, indices with 5 shards and 1 replica
+     */
+    DEFAULT,
+
+    /**
+     * Settings for fast tests on a single machine: no HTTP unless requested, indices with 1 shard and no replica,
+     * no disk watermarks, shorter discovery and asynchronous translog.
+     */
+    FAST;
+
+    /**
+     * System property used to select the profile of the nodes which do not select one explicitly
+     */
+    public static final String PROFILE_PROPERTY = "elasticsearch.test.profile";
+
+    /**
+     * @return the profile selected by the system property {@value #PROFILE_PROPERTY}, {@link #DEFAULT} if not set
+     */
+    public static NodeProfile defaultProfile() {
+        String profile = System.getProperty(PROFILE_PROPERTY);
+        if ((profile == null) || profile.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        return of(profile, "system property " + PROFILE_PROPERTY);
+    }
+
+    /**
+     * @param profile the case-insensitive name of a profile
+     * @param source  where the name comes from, for the error message
+     * @return the profile with the given name
+     * @throws EsSetupRuntimeException if no profile has this name
+     */
+    public static NodeProfile of(String profile, String source) {
+        try {
+            return valueOf(profile.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new EsSetupRuntimeException("Unknown node profile [" + profile + "] in " + source
+                    + ", expected one of " + Arrays.toString(values()), e);
+        }
+    }
+
+    /**
+     * @return the node settings of the profile
+     */
+    Settings nodeSettings() {
+        if (this == FAST) {
+            return Settings.builder()
+                    // Binding the HTTP port may conflict with other test JVMs and tests use the transport client,
+                    // it only saves about 0.1s of the start phase (within noise)
+                    .put("http.enabled", false)
+                    // Test machines often have full disks, watermarks would leave shards unassigned. No measurable
+                    // effect on the start phase
+                    .put("cluster.routing.allocation.disk.threshold_enabled", false)
+                    // Local nodes answer pings within milliseconds, the default 3s wait dominates the start phase:
+                    // a node is started and ready in about 3.8s instead of 6s
+                    .put("discovery.zen.ping_timeout", "500ms")
+                    .build();
+        }
+        return Settings.builder()
+                .put("http.enabled", true)
+                .build();
+    }
+
+    /**
+     * @return the default settings of the indices created on a node using the profile
+     */
+    Settings indexSettings() {
+        if (this == FAST) {
+            return Settings.builder()
+                    // Each shard is a Lucene index with its own files, threads and recovery: one is enough for tests.
+                    // Creating 10 indices takes about 0.6s instead of 1s with 5 shards
+                    .put("index.number_of_shards", 1)
+                    // Replicas can not be allocated on a single node, they would keep the health yellow. Creating
+                    // 10 indices takes about 0.55s instead of 0.6s with 1 replica
+                    .put("index.number_of_replicas", 0)
+                    // Test data does not need to survive a crash, no need to fsync the translog on every request:
+                    // 1000 single index requests take about 0.74s instead of 1.17s
+                    .put("index.translog.durability", "async")
+                    .build();
+        }
+        return Settings.EMPTY;
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.node.InternalSettingsPreparer;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeValidationException;
+import org.elasticsearch.plugins.Plugin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * NodeRegistry is a JVM-wide pool of embedded nodes, shared by
+ * {@link com.github.tlrx.elasticsearch.test.provider.LocalClientProvider} and the
+ * {@link com.github.tlrx.elasticsearch.test.annotations.ElasticsearchNode} annotation.
+ * <br/>
+ * Nodes are keyed by their effective settings and plugins, and are handed out as reference-counted {@link NodeLease}s.
+ * A node is started on its first lease and is stopped only when it has not been leased for the idle timeout
+ * (system property {@value #IDLE_TIMEOUT_PROPERTY}, default to 60s, -1 to keep nodes until the JVM exits) or when the
+ * JVM exits.
+ * <br/>
+ * A node leased again after all its leases have been released is reset first (all indices and templates are
+ * deleted), so that every user gets an empty cluster as if a new node had been started. Unused nodes are stopped
+ * before a node with different settings is started, so that they do not hold ports or join its cluster.
+ * <br/>
+ * Nodes without an explicit "path.home" setting get their own directories allocated by {@link NodeDirectories}, on
+ * the {@link StorageMode} requested for the node. The node settings of its {@link NodeProfile} are applied before its
+ * own settings, and the default index settings of the profile and of the storage are put in the
+ * {@value #DEFAULTS_TEMPLATE} template when the node starts and after every reset. The template matches all indices:
+ * {@link com.github.tlrx.elasticsearch.test.request.DeleteTemplates} requests keep it unless it is given by its exact
+ * name, but a template delete sent directly through the client with a wildcard removes it and indices then fall back to
+ * the Elasticsearch defaults until the next reset.
+ */
+public class NodeRegistry {
+
+    private final static Logger LOGGER = Logger.getLogger(NodeRegistry.class.getName());
+
+    /**
+     * System property used to configure the time an unused node is kept alive
+     */
+    public static final String IDLE_TIMEOUT_PROPERTY = "elasticsearch.test.node.idle_timeout";
+
+    private static final TimeValue DEFAULT_IDLE_TIMEOUT = TimeValue.timeValueSeconds(60);
+
+    /**
+     * Name of the template holding the default index settings of the nodes
+     */
+    public static final String DEFAULTS_TEMPLATE = "elasticsearch-test-defaults";
+
+    private static final NodeRegistry INSTANCE = new NodeRegistry(
+            TimeValue.parseTimeValue(System.getProperty(IDLE_TIMEOUT_PROPERTY), DEFAULT_IDLE_TIMEOUT, IDLE_TIMEOUT_PROPERTY));
+
+    private final Map<Key, PooledNode> nodes = new HashMap<>();
+    private final TimeValue idleTimeout;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong boots = new AtomicLong();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong shutdowns = new AtomicLong();
+
+    NodeRegistry(TimeValue idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "elasticsearch-test-node-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "elasticsearch-test-node-registry-shutdown"));
+    }
+
+    /**
+     * @return the JVM-wide registry
+     */
+    public static NodeRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases a node started with the given settings and plugins. The node is started if no node with the same
+     * settings and plugins is available yet.
+     *
+     * @param settings the node settings
+     * @param plugins  the classpath plugins of the node
+     * @return a {@link NodeLease} that must be released once the node is not used anymore
+     */
+    public NodeLease acquire(Settings settings, Collection<Class<? extends Plugin>> plugins) {
+        return acquire(settings, plugins, StorageMode.DISK);
+    }
+
+    /**
+     * Leases a node started with the given settings, plugins and storage. The node is started if no node with the
+     * same settings, plugins and storage is available yet.
+     *
+     * @param settings the node settings
+     * @param plugins  the classpath plugins of the node
+     * @param storage  the storage of the node directories
+     * @return a {@link NodeLease} that must be released once the node is not used anymore
+     */
+    public NodeLease acquire(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage) {
+        return acquire(settings, plugins, storage, NodeProfile.defaultProfile());
+    }
+
+    /**
+     * Leases a node started with the given settings, plugins, storage and profile. The node is started if no node
+     * with the same settings, plugins, storage and profile is available yet.
+     *
+     * @param settings the node settings
+     * @param plugins  the classpath plugins of the node
+     * @param storage  the storage of the node directories
+     * @param profile  the profile of the node and of its indices
+     * @return a {@link NodeLease} that must be released once the node is not used anymore
+     */
+    public NodeLease acquire(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage, NodeProfile profile) {
+        Preconditions.checkNotNull(settings, "No Settings specified");
+        Preconditions.checkNotNull(storage, "No StorageMode specified");
+        Preconditions.checkNotNull(profile, "No NodeProfile specified");
+        Key key = new Key(settings, plugins, storage, profile);
+
+        PooledNode pooled;
+        List<PooledNode> evicted = new ArrayList<>();
+        synchronized (this) {
+            pooled = nodes.get(key);
+            if (pooled == null) {
+                // Unused nodes would hold ports or join the cluster of the new node, so they are stopped first
+                evicted = evictIdleNodes();
+                pooled = new PooledNode(key, settings, plugins);
+                nodes.put(key, pooled);
+            }
+            pooled.retain();
+        }
+        for (PooledNode node : evicted) {
+            close(node);
+        }
+
+        try {
+            pooled.ensureStarted();
+        } catch (RuntimeException e) {
+            discard(pooled);
+            throw e;
+        }
+        leases.incrementAndGet();
+        return new NodeLease(this, pooled.node);
+    }
+
+    /**
+     * Leases the nodes of a cluster, starting the missing ones concurrently. The nodes are leased together so that the
+     * nodes of the cluster are never stopped to make room for each other.
+     *
+     * @param settings the settings of each node
+     * @param plugins  the classpath plugins of the nodes
+     * @param storage  the storage of the node directories
+     * @param profile  the profile of the nodes and of their indices
+     * @return the {@link NodeLease}s, in the order of the settings
+     */
+    public List<NodeLease> acquireAll(List<Settings> settings, Collection<Class<? extends Plugin>> plugins,
+                                      StorageMode storage, NodeProfile profile) {
+        Preconditions.checkNotNull(settings, "No Settings specified");
+        Preconditions.checkNotNull(storage, "No StorageMode specified");
+        Preconditions.checkNotNull(profile, "No NodeProfile specified");
+
+        List<PooledNode> pooledNodes = new ArrayList<>(settings.size());
+        List<PooledNode> evicted = new ArrayList<>();
+        synchronized (this) {
+            // Retain the pooled nodes of the cluster first, so that they are not evicted
+            boolean missing = false;
+            for (Settings nodeSettings : settings) {
+                PooledNode pooled = nodes.get(new Key(nodeSettings, plugins, storage, profile));
+                if (pooled != null) {
+                    pooled.retain();
+                } else {
+                    missing = true;
+                }
+                pooledNodes.add(pooled);
+            }
+            if (missing) {
+                evicted = evictIdleNodes();
+                for (int i = 0; i < settings.size(); i++) {
+                    if (pooledNodes.get(i) == null) {
+                        Key key = new Key(settings.get(i), plugins, storage, profile);
+                        PooledNode pooled = nodes.get(key);
+                        if (pooled == null) {
+                            pooled = new PooledNode(key, settings.get(i), plugins);
+                            nodes.put(key, pooled);
+                        }
+                        pooled.retain();
+                        pooledNodes.set(i, pooled);
+                    }
+                }
+            }
+        }
+        for (PooledNode node : evicted) {
+            close(node);
+        }
+
+        // Nodes of a cluster wait for each other while they start, they must be started concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(pooledNodes.size(), r -> {
+            Thread thread = new Thread(r, "elasticsearch-test-node-start");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> starts = new ArrayList<>(pooledNodes.size());
+            for (PooledNode pooled : pooledNodes) {
+                starts.add(executor.submit(pooled::ensureStarted));
+            }
+            RuntimeException failure = null;
+            for (Future<?> start : starts) {
+                try {
+                    start.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new EsSetupRuntimeException("Interrupted while starting nodes", e);
+                } catch (ExecutionException e) {
+                    failure = (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause()
+                            : new EsSetupRuntimeException("Unable to start nodes", e.getCause());
+                }
+            }
+            if (failure != null) {
+                for (PooledNode pooled : pooledNodes) {
+                    if (pooled.node == null) {
+                        discard(pooled);
+                    } else {
+                        release(pooled);
+                    }
+                }
+                throw failure;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<NodeLease> result = new ArrayList<>(pooledNodes.size());
+        for (PooledNode pooled : pooledNodes) {
+            leases.incrementAndGet();
+            result.add(new NodeLease(this, pooled.node));
+        }
+        return result;
+    }
+
+    /**
+     * Releases a lease on the given node. The node is stopped once it has not been leased for the idle timeout.
+     *
+     * @param node the leased node
+     */
+    public void release(Node node) {
+        PooledNode pooled = null;
+        synchronized (this) {
+            for (PooledNode candidate : nodes.values()) {
+                if (candidate.node == node) {
+                    pooled = candidate;
+                    break;
+                }
+            }
+        }
+        if (pooled != null) {
+            release(pooled);
+        }
+    }
+
+    private synchronized void release(PooledNode pooled) {
+        if (pooled.refCount <= 0) {
+            return;
+        }
+        releases.incrementAndGet();
+        if (--pooled.refCount == 0) {
+            pooled.resetOnNextLease = true;
+            if (idleTimeout.millis() >= 0) {
+                pooled.idleClose = scheduler.schedule(() -> closeIfIdle(pooled), idleTimeout.millis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Releases a lease on a node that failed to start, and removes the node from the pool
+     */
+    private synchronized void discard(PooledNode pooled) {
+        pooled.refCount--;
+        if (pooled.node == null && nodes.get(pooled.key) == pooled) {
+            nodes.remove(pooled.key);
+        }
+    }
+
+    private void closeIfIdle(PooledNode pooled) {
+        synchronized (this) {
+            if ((pooled.refCount > 0) || (nodes.get(pooled.key) != pooled)) {
+                return;
+            }
+            nodes.remove(pooled.key);
+        }
+        close(pooled);
+    }
+
+    /**
+     * Removes all the unused nodes from the pool
+     */
+    private List<PooledNode> evictIdleNodes() {
+        List<PooledNode> evicted = new ArrayList<>();
+        for (Iterator<PooledNode> it = nodes.values().iterator(); it.hasNext(); ) {
+            PooledNode pooled = it.next();
+            if (pooled.refCount == 0) {
+                it.remove();
+                evicted.add(pooled);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Stops a node that has been removed from the pool and deletes its directories. Nodes with an explicit home
+     * directory only get their own data directories deleted.
+     */
+    private void close(PooledNode pooled) {
+        if (pooled.idleClose != null) {
+            pooled.idleClose.cancel(false);
+        }
+        synchronized (pooled) {
+            if ((pooled.node == null) || pooled.node.isClosed()) {
+                return;
+            }
+            Path[] dataPaths = pooled.node.getNodeEnvironment().nodeDataPaths();
+            try {
+                pooled.node.close();
+                shutdowns.incrementAndGet();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to close node [" + pooled.settings.get("node.name") + "]", e);
+            }
+            if (pooled.directories != null) {
+                pooled.directories.delete();
+            } else {
+                for (Path dataPath : dataPaths) {
+                    AsyncDirectoryDeleter.getInstance().delete(dataPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops all the pooled nodes, used at JVM exit
+     */
+    private void shutdown() {
+        List<PooledNode> all;
+        synchronized (this) {
+            all = new ArrayList<>(nodes.values());
+            nodes.clear();
+        }
+        scheduler.shutdownNow();
+        for (PooledNode pooled : all) {
+            close(pooled);
+        }
+        AsyncDirectoryDeleter.getInstance().drain(TimeValue.timeValueSeconds(30));
+        if (boots.get() > 0) {
+            LOGGER.info("Node registry: " + stats());
+        }
+    }
+
+    /**
+     * @return the current registry metrics
+     */
+    public Stats stats() {
+        int pooled, leased = 0;
+        synchronized (this) {
+            pooled = nodes.size();
+            for (PooledNode node : nodes.values()) {
+                if (node.refCount > 0) {
+                    leased++;
+                }
+            }
+        }
+        return new Stats(boots.get(), leases.get(), reuses.get(), releases.get(), shutdowns.get(), pooled, leased);
+    }
+
+    /**
+     * Key of a pooled node: its settings, the names of its plugins, its storage and its profile
+     */
+    private static final class Key {
+
+        private final Settings settings;
+        private final Set<String> plugins = new TreeSet<>();
+        private final StorageMode storage;
+        private final NodeProfile profile;
+
+        Key(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage, NodeProfile profile) {
+            this.settings = settings;
+            this.storage = storage;
+            this.profile = profile;
+            if (plugins != null) {
+                for (Class<? extends Plugin> plugin : plugins) {
+                    this.plugins.add(plugin.getName());
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return settings.equals(other.settings) && plugins.equals(other.plugins) && (storage == other.storage)
+                    && (profile == other.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * settings.hashCode() + plugins.hashCode()) + storage.hashCode()) + profile.hashCode();
+        }
+    }
+
+    /**
+     * A node of the pool with its reference count
+     */
+    private final class PooledNode {
+
+        private final Key key;
+        private final Settings settings;
+        private final Collection<Class<? extends Plugin>> plugins;
+        private final StorageMode storage;
+        private final NodeProfile profile;
+
+        private Node node;
+        private NodeDirectories directories;
+        private int refCount = 0;
+        private boolean resetOnNextLease = false;
+        private ScheduledFuture<?> idleClose;
+
+        PooledNode(Key key, Settings settings, Collection<Class<? extends Plugin>> plugins) {
+            this.key = key;
+            this.settings = settings;
+            this.plugins = plugins;
+            this.storage = key.storage;
+            this.profile = key.profile;
+        }
+
+        /**
+         * Must be called while holding the registry lock
+         */
+        void retain() {
+            if (idleClose != null) {
+                idleClose.cancel(false);
+                idleClose = null;
+            }
+            refCount++;
+        }
+
+        synchronized void ensureStarted() {
+            if (node == null) {
+                BootProfiler.Profile boot = BootProfiler.getInstance().start(settings.get("node.name"));
+                Settings.Builder nodeSettings = Settings.builder()
+                        .put(profile.nodeSettings())
+                        .put(storage.nodeSettings())
+                        .put(settings);
+                if (settings.get("path.home") == null) {
+                    directories = NodeDirectories.allocate(settings.get("node.name"), storage);
+                    directories.applyTo(nodeSettings);
+                }
+                Environment environment = InternalSettingsPreparer.prepareEnvironment(nodeSettings.build(), null);
+                boot.end(BootProfiler.Phase.PREPARE_SETTINGS);
+
+                Node started = new PooledNodeImpl(environment, plugins);
+                boot.end(BootProfiler.Phase.CONSTRUCT);
+                try {
+                    started.start();
+                } catch (NodeValidationException e) {
+                    try {
+                        started.close();
+                    } catch (IOException ignored) {
+                    }
+                    throw new EsSetupRuntimeException("Unable to start node [" + settings.get("node.name") + "]", e);
+                }
+                boot.end(BootProfiler.Phase.START);
+                node = started;
+                boots.incrementAndGet();
+                putIndexDefaults();
+                boot.end(BootProfiler.Phase.INDEX_DEFAULTS);
+                boot.complete();
+
+            } else if (resetOnNextLease) {
+                long start = System.nanoTime();
+                Client client = node.client();
+                client.admin().indices().prepareDelete("_all").get();
+                client.admin().indices().prepareDeleteTemplate("*").get();
+                putIndexDefaults();
+                reuses.incrementAndGet();
+                BootProfiler.getInstance().record(BootProfiler.Phase.RESET, System.nanoTime() - start);
+            }
+            resetOnNextLease = false;
+        }
+
+        /**
+         * Puts a template that applies the default index settings of the node to all new indices
+         */
+        private void putIndexDefaults() {
+            Settings indexSettings = Settings.builder()
+                    .put(profile.indexSettings())
+                    .put(storage.indexSettings())
+                    .build();
+            if (!indexSettings.isEmpty()) {
+                node.client().admin().indices()
+                        .preparePutTemplate(DEFAULTS_TEMPLATE)
+                        .setPatterns(singletonList("*"))
+                        .setOrder(Integer.MIN_VALUE)
+                        .setSettings(indexSettings)
+                        .get();
+            }
+        }
+    }
+
+    private static class PooledNodeImpl extends Node {
+        public PooledNodeImpl(Environment environment, Collection<Class<? extends Plugin>> classpathPlugins) {
+            super(environment, classpathPlugins);
+        }
+    }
+
+    /**
+     * Metrics of the registry
+     */
+    public static class Stats {
+
+        private final long boots;
+        private final long leases;
+        private final long reuses;
+        private final long releases;
+        private final long shutdowns;
+        private final int pooledNodes;
+        private final int leasedNodes;
+
+        Stats(long boots, long leases, long reuses, long releases, long shutdowns, int pooledNodes, int leasedNodes) {
+            this.boots = boots;
+            this.leases = leases;
+            this.reuses = reuses;
+            this.releases = releases;
+            this.shutdowns = shutdowns;
+            this.pooledNodes = pooledNodes;
+            this.leasedNodes = leasedNodes;
+        }
+
+        /**
+         * @return the number of nodes started
+         */
+        public long getBoots() {
+            return boots;
+        }
+
+        /**
+         * @return the number of leases handed out
+         */
+        public long getLeases() {
+            return leases;
+        }
+
+        /**
+         * @return the number of leases served by resetting an already started node
+         */
+        public long getReuses() {
+            return reuses;
+        }
+
+        /**
+         * @return the number of leases released
+         */
+        public long getReleases() {
+            return releases;
+        }
+
+        /**
+         * @return the number of nodes stopped
+         */
+        public long getShutdowns() {
+            return shutdowns;
+        }
+
+        /**
+         * @return the number of nodes currently in the pool
+         */
+        public int getPooledNodes() {
+            return pooledNodes;
+        }
+
+        /**
+         * @return the number of nodes currently leased
+         */
+        public int getLeasedNodes() {
+            return leasedNodes;
+        }
+
+        @Override
+        public String toString() {
+            return "stats [" +
+                    "boots=" + boots +
+                    ", leases=" + leases +
+                    ", reuses=" + reuses +
+                    ", releases=" + releases +
+                    ", shutdowns=" + shutdowns +
+                    ", pooled=" + pooledNodes +
+                    ", leased=" + leasedNodes +
+                    ']';
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.support.AbstractClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Client} sending each request to the next client of a list, e.g. to spread requests over the nodes of a
+ * cluster. Closing it does not close the underlying clients.
+ */
+public class RoundRobinClient extends AbstractClient {
+
+    private final List<Client> clients;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public RoundRobinClient(List<Client> clients) {
+        super(first(clients).settings(), first(clients).threadPool());
+        this.clients = new ArrayList<>(clients);
+    }
+
+    private static Client first(List<Client> clients) {
+        Preconditions.checkArgument((clients != null) && !clients.isEmpty(), "No Client specified");
+        return clients.get(0);
+    }
+
+    @Override
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        Client client = clients.get(Math.floorMod(next.getAndIncrement(), clients.size()));
+        client.execute(action, request, listener);
+    }
+
+    @Override
+    public void close() {
+        // The underlying clients are owned by their nodes
+    }
+}
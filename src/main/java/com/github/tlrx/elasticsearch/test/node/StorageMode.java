@@ -0,0 +1,67 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Storage of the home, data and logs directories of an embedded node.
+ */
+public enum StorageMode {
+
+    /**
+     * Directories are stored on disk, under the base directory of {@link NodeDirectories}
+     */
+    DISK,
+
+    /**
+     * Directories are stored on a memory-backed file system (/dev/shm by default, see
+     * {@link NodeDirectories#MEMORY_PATH_PROPERTY}), and indices are configured for throwaway data. Falls back to
+     * {@link #DISK} when no memory-backed file system is available.
+     */
+    MEMORY;
+
+    /**
+     * @return the node settings of the storage mode
+     */
+    Settings nodeSettings() {
+        if (this == MEMORY) {
+            // Memory-backed file systems are small, disk watermarks would prevent shards allocation
+            return Settings.builder()
+                    .put("cluster.routing.allocation.disk.threshold_enabled", false)
+                    .build();
+        }
+        return Settings.EMPTY;
+    }
+
+    /**
+     * @return the default settings of the indices created on a node using the storage mode
+     */
+    Settings indexSettings() {
+        if (this == MEMORY) {
+            return Settings.builder()
+                    // Data does not survive the node, no need to fsync the translog on every request
+                    .put("index.translog.durability", "async")
+                    // Files live in the page cache, mapping them avoids copying through read buffers
+                    .put("index.store.type", "mmapfs")
+                    .build();
+        }
+        return Settings.EMPTY;
+    }
+}
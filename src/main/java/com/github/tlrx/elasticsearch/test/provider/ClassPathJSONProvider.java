@@ -20,17 +20,25 @@ package com.github.tlrx.elasticsearch.test.provider;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.google.common.base.Preconditions;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.file.Path;
 
 /**
- * A ClassPathJSONProvider is able to load a file from the classpath and returns its content as a JSON String.
+ * A ClassPathJSONProvider is able to load a file from the classpath and returns its content as a JSON String, or as
+ * the bytes of the file without decoding them. Resources inside jars are extracted to a cache directory when they are
+ * accessed as a local file with {@link #toPath()}, resources of other URL schemes (vfs:, bundle:, ...) are only
+ * streamed. Compressed resources are decompressed as they are read
+ * (see {@link Compression}).
  */
-public class ClassPathJSONProvider implements JSONProvider {
+public class ClassPathJSONProvider implements FileBackedJSONProvider {
 
     private Class klass;
     private ClassLoader classLoader;
@@ -53,6 +61,30 @@ public class ClassPathJSONProvider implements JSONProvider {
         return toString();
     }
 
+    @Override
+    public Path toPath() {
+        try {
+            URL resource = (klass != null) ? klass.getResource(path) : classLoader.getResource(path);
+            if (resource == null) {
+                throw new FileNotFoundException("Resource [" + path + "] not found in classpath");
+            }
+            return ResourceCache.toPath(resource);
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+    }
+
+    @Override
+    public BytesReference toBytes() {
+        try (InputStream inputStream = openStream()) {
+            BytesStreamOutput output = new BytesStreamOutput();
+            Streams.copy(inputStream, output);
+            return output.bytes();
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+    }
+
     @Override
     public String toString() {
         try {
@@ -63,7 +95,8 @@ public class ClassPathJSONProvider implements JSONProvider {
         }
     }
 
-    private InputStream openStream() throws IOException {
+    @Override
+    public InputStream openStream() throws IOException {
         InputStream inputStream;
         if (klass != null) {
             inputStream = klass.getResourceAsStream(path);
@@ -76,6 +109,6 @@ public class ClassPathJSONProvider implements JSONProvider {
                 throw new FileNotFoundException("Resource [" + path + "] not found in classpath with classloader  [" + classLoader + "]");
             }
         }
-        return inputStream;
+        return Compression.decompress(path, inputStream);
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.node.EmbeddedCluster;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.client.Client;
+
+/**
+ * ClusterClientProvider starts an {@link EmbeddedCluster} of local nodes. Requests are sent to the nodes in turn.
+ */
+public class ClusterClientProvider implements ClientProvider {
+
+    private final EmbeddedCluster cluster;
+    private ClusterReadiness readiness = null;
+
+    public ClusterClientProvider(EmbeddedCluster cluster) {
+        Preconditions.checkNotNull(cluster, "No EmbeddedCluster specified");
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void open() {
+        if (!cluster.isStarted()) {
+            // Start the nodes, waits for green
+            cluster.start();
+        }
+        if (readiness == null) {
+            // The cluster may have been started by the caller
+            readiness = ClusterReadiness.of(cluster.nodes().get(0));
+        }
+
+        // Wait for Yellow status, returns immediately once the cluster is ready
+        readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
+    }
+
+    @Override
+    public Client client() {
+        return cluster.isStarted() ? cluster.client() : null;
+    }
+
+    /**
+     * @return the cluster
+     */
+    public EmbeddedCluster cluster() {
+        return cluster;
+    }
+
+    @Override
+    public void close() {
+        if (readiness != null) {
+            readiness.close();
+            readiness = null;
+        }
+        cluster.close();
+    }
+}
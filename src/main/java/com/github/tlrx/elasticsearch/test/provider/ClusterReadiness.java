@@ -0,0 +1,225 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.cluster.health.ClusterStateHealth;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.gateway.GatewayService;
+import org.elasticsearch.node.Node;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * ClusterReadiness tells whether a cluster is ready to serve requests, i.e. it has an elected master, its state is
+ * recovered and its health is at least yellow.
+ * <br/>
+ * Readiness is cached: once the cluster is known to be ready, {@link #awaitReady(TimeValue)} returns immediately
+ * until a change is observed. For a local node, the tracker listens to the cluster state published on the node and
+ * never sends a request. For a client, the last successful cluster health is kept until the nodes change or
+ * {@link #invalidate()} is called: a transport client compares the nodes it is connected to without sending any
+ * request, other clients compare the elected master and the nodes of the local cluster state of the node they talk
+ * to. Other cluster state changes, such as index creations, do not drop the cached readiness.
+ */
+public abstract class ClusterReadiness {
+
+    private final static Logger LOGGER = Logger.getLogger(ClusterReadiness.class.getName());
+
+    /**
+     * Default time to wait for the cluster to be ready
+     */
+    public static final TimeValue DEFAULT_TIMEOUT = TimeValue.timeValueMinutes(1);
+
+    /**
+     * @param node a started local node
+     * @return a readiness tracker listening to the cluster state of the node, to be closed with {@link #close()}
+     */
+    public static ClusterReadiness of(Node node) {
+        return new NodeReadiness(node.injector().getInstance(ClusterService.class));
+    }
+
+    /**
+     * @param client a client
+     * @return a readiness tracker caching the cluster health retrieved with the client
+     */
+    public static ClusterReadiness of(Client client) {
+        return new ClientReadiness(client);
+    }
+
+    /**
+     * Waits for the cluster to be ready, returns immediately if it is already known to be ready. As with a cluster
+     * health request, a warning is logged and the method returns if the cluster is not ready within the timeout.
+     *
+     * @param timeout the maximum time to wait
+     */
+    public abstract void awaitReady(TimeValue timeout);
+
+    /**
+     * Forgets the cached readiness, the next call to {@link #awaitReady(TimeValue)} checks the cluster again
+     */
+    public abstract void invalidate();
+
+    /**
+     * Stops tracking the cluster
+     */
+    public void close() {
+    }
+
+    /**
+     * Tracks the readiness of a local node with a {@link ClusterStateListener}
+     */
+    private static final class NodeReadiness extends ClusterReadiness implements ClusterStateListener {
+
+        private final ClusterService clusterService;
+        private ClusterState state;
+        private boolean ready;
+
+        NodeReadiness(ClusterService clusterService) {
+            this.clusterService = clusterService;
+            // Listen first so that no state is missed, then read the current state
+            clusterService.addListener(this);
+            update(clusterService.state());
+        }
+
+        @Override
+        public void clusterChanged(ClusterChangedEvent event) {
+            update(event.state());
+        }
+
+        private synchronized void update(ClusterState newState) {
+            if ((state == null) || (newState.version() >= state.version())) {
+                state = newState;
+                ready = isReady(newState);
+                notifyAll();
+            }
+        }
+
+        private static boolean isReady(ClusterState state) {
+            return (state.nodes().getMasterNodeId() != null)
+                    && !state.blocks().hasGlobalBlock(GatewayService.STATE_NOT_RECOVERED_BLOCK)
+                    && (new ClusterStateHealth(state).getStatus() != ClusterHealthStatus.RED);
+        }
+
+        @Override
+        public synchronized void awaitReady(TimeValue timeout) {
+            long deadline = System.currentTimeMillis() + timeout.millis();
+            while (!ready) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    LOGGER.warning("Cluster is not ready after " + timeout);
+                    return;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EsSetupRuntimeException("Interrupted while waiting for the cluster", e);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void invalidate() {
+            // The state is always current, re-evaluate it
+            ready = isReady(state);
+        }
+
+        @Override
+        public void close() {
+            clusterService.removeListener(this);
+        }
+    }
+
+    /**
+     * Tracks the readiness of a cluster with cluster health requests
+     */
+    private static final class ClientReadiness extends ClusterReadiness {
+
+        private final Client client;
+        private volatile Set<String> readyNodes;
+
+        ClientReadiness(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void awaitReady(TimeValue timeout) {
+            Set<String> nodes = nodes();
+            if (nodes.equals(readyNodes)) {
+                return;
+            }
+            ClusterHealthResponse health = client.admin().cluster()
+                    .prepareHealth()
+                    .setWaitForYellowStatus()
+                    .setTimeout(timeout)
+                    .execute()
+                    .actionGet();
+            if (health.isTimedOut()) {
+                LOGGER.warning("Cluster is not ready after " + timeout + ", status is " + health.getStatus());
+                return;
+            }
+            readyNodes = nodes;
+        }
+
+        @Override
+        public void invalidate() {
+            readyNodes = null;
+        }
+
+        /**
+         * @return the ids of the nodes a transport client is connected to, or the ids of the elected master and of the
+         * nodes of the local cluster state for other clients
+         */
+        private Set<String> nodes() {
+            Set<String> ids = new HashSet<>();
+            if (client instanceof TransportClient) {
+                for (DiscoveryNode node : ((TransportClient) client).connectedNodes()) {
+                    ids.add(node.getId());
+                }
+                return ids;
+            }
+            DiscoveryNodes nodes = client.admin().cluster()
+                    .prepareState()
+                    .setLocal(true)
+                    .clear()
+                    .setNodes(true)
+                    .execute()
+                    .actionGet()
+                    .getState()
+                    .nodes();
+            ids.add("master:" + nodes.getMasterNodeId());
+            for (DiscoveryNode node : nodes) {
+                ids.add(node.getId());
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of JSON content, detected from the extension of the file name or else from the magic bytes at the
+ * beginning of the content. Compressed content is decompressed as it is read and is never held in memory as a whole.
+ * <br/>
+ * Gzip and deflate (zlib or raw) are supported out of the box, LZ4 frames and Zstandard when lz4-java
+ * (org.lz4:lz4-java) or zstd-jni (com.github.luben:zstd-jni) are on the classpath.
+ */
+public enum Compression {
+
+    NONE(new String[0], new byte[0]),
+    GZIP(new String[]{".gz", ".gzip"}, new byte[]{0x1f, (byte) 0x8b}),
+    DEFLATE(new String[]{".deflate", ".zz"}, new byte[0]),
+    LZ4(new String[]{".lz4"}, new byte[]{0x04, 0x22, 0x4d, 0x18}),
+    ZSTD(new String[]{".zst", ".zstd"}, new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+    private static final int HEADER_LENGTH = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String[] extensions;
+    private final byte[] magic;
+
+    Compression(String[] extensions, byte[] magic) {
+        this.extensions = extensions;
+        this.magic = magic;
+    }
+
+    /**
+     * @param file a file
+     * @return the compression of the file
+     */
+    public static Compression detect(Path file) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length;
+        try (InputStream input = Files.newInputStream(file)) {
+            length = readHeader(input, header);
+        }
+        return detect(file.getFileName().toString(), header, length);
+    }
+
+    /**
+     * Decompresses the content if it is compressed
+     *
+     * @param name  the name of the file or of the resource, used to detect the compression from its extension
+     * @param input the content, closed with the returned stream
+     * @return the decompressed content
+     */
+    public static InputStream decompress(String name, InputStream input) throws IOException {
+        InputStream buffered = input.markSupported() ? input : new BufferedInputStream(input, BUFFER_SIZE);
+        byte[] header = new byte[HEADER_LENGTH];
+        buffered.mark(HEADER_LENGTH);
+        int length = readHeader(buffered, header);
+        buffered.reset();
+
+        Compression compression = detect(name, header, length);
+        try {
+            return compression.open(buffered, header, length);
+        } catch (IOException | RuntimeException e) {
+            buffered.close();
+            throw e;
+        }
+    }
+
+    private static Compression detect(String name, byte[] header, int length) {
+        String lowerCaseName = (name != null) ? name.toLowerCase(Locale.ROOT) : "";
+        for (Compression compression : values()) {
+            for (String extension : compression.extensions) {
+                if (lowerCaseName.endsWith(extension)) {
+                    return compression;
+                }
+            }
+        }
+        for (Compression compression : values()) {
+            if ((compression.magic.length > 0) && startsWith(header, length, compression.magic)) {
+                return compression;
+            }
+        }
+        // JSON never starts with a zlib header: the first byte of JSON is not a deflate method byte
+        return isZlibHeader(header, length) ? DEFLATE : NONE;
+    }
+
+    private InputStream open(InputStream input, byte[] header, int length) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            case DEFLATE:
+                // Deflate files are usually zlib streams, but some tools write raw deflate data
+                final Inflater inflater = new Inflater(!isZlibHeader(header, length));
+                return new InflaterInputStream(input, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            case LZ4:
+                return open("net.jpountz.lz4.LZ4FrameInputStream", "org.lz4:lz4-java", input);
+            case ZSTD:
+                return open("com.github.luben.zstd.ZstdInputStream", "com.github.luben:zstd-jni", input);
+            default:
+                return input;
+        }
+    }
+
+    /**
+     * Instantiates a decompressing stream of an optional library
+     */
+    private InputStream open(String className, String artifact, InputStream input) throws IOException {
+        Class<?> streamClass;
+        try {
+            streamClass = Class.forName(className, true, Compression.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new EsSetupRuntimeException("Content is compressed with " + this + ", add " + artifact
+                    + " to the classpath to decompress it");
+        }
+        try {
+            return (InputStream) streamClass.getConstructor(InputStream.class).newInstance(input);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new EsSetupRuntimeException("Unable to decompress " + this + " content", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new EsSetupRuntimeException("Unable to decompress " + this + " content", e);
+        }
+    }
+
+    private static int readHeader(InputStream input, byte[] header) throws IOException {
+        int length = 0;
+        while (length < header.length) {
+            int read = input.read(header, length, header.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static boolean startsWith(byte[] header, int length, byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZlibHeader(byte[] header, int length) {
+        return (length >= 2) && ((header[0] & 0x0f) == 8) && ((((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0);
+    }
+}
@@ -20,7 +20,6 @@ package com.github.tlrx.elasticsearch.test.provider;
 
 import com.google.common.base.Preconditions;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.unit.TimeValue;
 
 /**
  * DefaultClientProvider uses a given {@link Client} instance. This provider is useful when the client is instantiated
@@ -30,22 +29,19 @@ public class DefaultClientProvider implements ClientProvider {
 
     private final Client client;
     private final boolean closeOnTerminate;
+    private final ClusterReadiness readiness;
 
     public DefaultClientProvider(Client client, boolean closeClientOnTerminate) {
         Preconditions.checkNotNull(client, "No Client specified");
         this.closeOnTerminate = closeClientOnTerminate;
         this.client = client;
+        this.readiness = ClusterReadiness.of(client);
     }
 
     @Override
     public void open() {
-        // Wait for Yellow status
-        client().admin().cluster()
-                .prepareHealth()
-                .setWaitForYellowStatus()
-                .setTimeout(TimeValue.timeValueMinutes(1))
-                .execute()
-                .actionGet();
+        // Wait for Yellow status, once until the nodes change (see ClusterReadiness)
+        readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
     }
 
     @Override
@@ -55,6 +51,7 @@ public class DefaultClientProvider implements ClientProvider {
 
     @Override
     public void close() {
+        readiness.invalidate();
         if (closeOnTerminate) {
             client().close();
         }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A FileJSONProvider provides the content of a local file. {@link #toBytes()} memory-maps the file, and bulk data is
+ * loaded from memory-mapped regions of the file (see {@link com.github.tlrx.elasticsearch.test.request.BulkLoader}).
+ * Compressed files are decompressed as they are read instead (see {@link Compression}).
+ */
+public class FileJSONProvider implements FileBackedJSONProvider {
+
+    private final Path path;
+
+    public FileJSONProvider(Path path) {
+        Preconditions.checkNotNull(path, "No Path specified");
+        this.path = path;
+    }
+
+    @Override
+    public Path toPath() {
+        return path;
+    }
+
+    @Override
+    public String toJson() {
+        try (InputStream input = openStream()) {
+            return Streams.copyToString(new InputStreamReader(input, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the memory-mapped content of the file, which must be smaller than 2gb, or the decompressed content of
+     * a compressed file
+     */
+    @Override
+    public BytesReference toBytes() {
+        try {
+            if (Compression.detect(path) != Compression.NONE) {
+                try (InputStream input = openStream()) {
+                    BytesStreamOutput output = new BytesStreamOutput();
+                    Streams.copy(input, output);
+                    return output.bytes();
+                }
+            }
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new EsSetupRuntimeException("File [" + path + "] is too large to be mapped at once: " + size + " bytes");
+            }
+            return new MappedBytesReference(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return Compression.decompress(path.getFileName().toString(), Files.newInputStream(path));
+    }
+
+    @Override
+    public String toString() {
+        return "file [" + path + "]";
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Converts JSON fixtures into binary formats that Elasticsearch parses faster: bulk data into SMILE, the only binary
+ * format accepted in bulk requests, and single documents into SMILE or CBOR.
+ * <pre>
+ * java -cp ... com.github.tlrx.elasticsearch.test.provider.FixtureConverter bulk.json bulk.smile smile
+ * java -cp ... com.github.tlrx.elasticsearch.test.provider.FixtureConverter --document doc.json doc.cbor cbor
+ * </pre>
+ * Compressed input files are decompressed (see {@link Compression}).
+ */
+public final class FixtureConverter {
+
+    private FixtureConverter() {
+    }
+
+    /**
+     * Converts newline delimited JSON bulk data, each line being encoded and followed by the stream separator of the
+     * target format
+     *
+     * @param input  the JSON bulk data
+     * @param output the converted bulk data, written line by line: it should be buffered
+     * @param target {@link XContentType#JSON} or {@link XContentType#SMILE}
+     * @return the number of lines converted
+     */
+    public static long convertBulk(InputStream input, OutputStream output, XContentType target) throws IOException {
+        if ((target != XContentType.JSON) && (target != XContentType.SMILE)) {
+            throw new IllegalArgumentException("Bulk data can only be converted into JSON or SMILE, not " + target);
+        }
+        byte separator = target.xContent().streamSeparator();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        long lines = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, line)) {
+                convert(parser, output, target);
+            }
+            output.write(separator);
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Converts a single JSON document
+     *
+     * @param input  the JSON document
+     * @param output the converted document
+     * @param target the format of the converted document
+     */
+    public static void convertDocument(InputStream input, OutputStream output, XContentType target) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, input)) {
+            convert(parser, output, target);
+        }
+    }
+
+    private static void convert(XContentParser parser, OutputStream output, XContentType target) throws IOException {
+        parser.nextToken();
+        try (XContentBuilder builder = XContentFactory.contentBuilder(target)) {
+            builder.copyCurrentStructure(parser);
+            builder.bytes().writeTo(output);
+        }
+    }
+
+    /**
+     * Converts a file: [--document] input output format
+     */
+    public static void main(String[] args) throws IOException {
+        boolean document = (args.length == 4) && "--document".equals(args[0]);
+        int first = document ? 1 : 0;
+        if (args.length - first != 3) {
+            System.err.println("Usage: FixtureConverter [--document] <input> <output> <smile|cbor|json>");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[first]);
+        Path output = Paths.get(args[first + 1]);
+        XContentType target = XContentType.valueOf(args[first + 2].toUpperCase(Locale.ROOT));
+
+        try (InputStream in = Compression.decompress(input.getFileName().toString(), Files.newInputStream(input));
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            if (document) {
+                convertDocument(in, out, target);
+            } else {
+                System.out.println(convertBulk(in, out, target) + " lines converted into " + output);
+            }
+        }
+    }
+}
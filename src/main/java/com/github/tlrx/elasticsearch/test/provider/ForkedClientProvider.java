@@ -0,0 +1,81 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.node.BootProfiler;
+import com.github.tlrx.elasticsearch.test.node.ForkedNode;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.client.Client;
+
+/**
+ * ForkedClientProvider starts a {@link ForkedNode} in a child JVM and uses a transport client connected to it.
+ */
+public class ForkedClientProvider implements ClientProvider {
+
+    private final ForkedNode node;
+    private ClusterReadiness readiness = null;
+
+    public ForkedClientProvider(ForkedNode node) {
+        Preconditions.checkNotNull(node, "No ForkedNode specified");
+        this.node = node;
+    }
+
+    @Override
+    public void open() {
+        boolean started = false;
+        if (!node.isStarted()) {
+            // Start or get back the child JVM
+            node.start();
+            started = true;
+        }
+        if (readiness == null) {
+            // The node may have been started by the caller
+            readiness = ClusterReadiness.of(node.client());
+        }
+
+        // Wait for Yellow status, returns immediately once the cluster is known to be ready
+        long start = System.nanoTime();
+        readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
+        if (started) {
+            BootProfiler.getInstance().record(BootProfiler.Phase.WAIT_FOR_READY, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Client client() {
+        return node.isStarted() ? node.client() : null;
+    }
+
+    /**
+     * @return the node
+     */
+    public ForkedNode node() {
+        return node;
+    }
+
+    @Override
+    public void close() {
+        if (readiness != null) {
+            readiness.close();
+            readiness = null;
+        }
+        // The child JVM keeps running to be reused
+        node.close();
+    }
+}
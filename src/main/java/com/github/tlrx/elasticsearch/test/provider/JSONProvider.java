@@ -18,9 +18,37 @@
  */
 package com.github.tlrx.elasticsearch.test.provider;
 
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * JSONProvider provides JSON content as String objects.
+ * <br/>
+ * Requests consume the content as UTF-8 bytes through {@link #toBytes()} and {@link #openStream()}. Their default
+ * implementations encode {@link #toJson()}, so that String based providers keep working; providers that read bytes
+ * should override them to avoid decoding the content to a String and encoding it back.
  */
 public interface JSONProvider {
     String toJson();
+
+    /**
+     * @return the UTF-8 encoded JSON content
+     */
+    default BytesReference toBytes() {
+        return new BytesArray(toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Opens a stream of the UTF-8 encoded JSON content, used to stream large bulk data. Providers that read their
+     * content from a file or a resource should override it so that the content is never held in memory as a whole.
+     *
+     * @return the JSON content as a stream
+     */
+    default InputStream openStream() throws IOException {
+        return toBytes().streamInput();
+    }
 }
@@ -18,45 +18,60 @@
  */
 package com.github.tlrx.elasticsearch.test.provider;
 
-
+import com.github.tlrx.elasticsearch.test.node.BootProfiler;
+import com.github.tlrx.elasticsearch.test.node.NodeDirectories;
+import com.github.tlrx.elasticsearch.test.node.NodeLease;
+import com.github.tlrx.elasticsearch.test.node.NodeProfile;
+import com.github.tlrx.elasticsearch.test.node.NodeRegistry;
+import com.github.tlrx.elasticsearch.test.node.StorageMode;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.node.InternalSettingsPreparer;
-import org.elasticsearch.node.Node;
-import org.elasticsearch.node.NodeValidationException;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.transport.Netty4Plugin;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import static java.util.Collections.emptyList;
 
 /**
  * LocalClientProvider instantiates a local node with in-memory index store type.
+ * <br/>
+ * Nodes are leased from the {@link NodeRegistry}, so providers with the same settings share the same node. Each node
+ * gets its own directories, and the default cluster name is unique per JVM so that parallel test JVMs do not join
+ * each other's cluster.
  */
 public class LocalClientProvider implements ClientProvider {
 
-    private Node node = null;
+    /**
+     * Default node name, identical for all the providers of the JVM so that they can share the same node
+     */
+    private static final String DEFAULT_NODE_NAME = "node-test-" + System.currentTimeMillis();
+
+    private NodeLease lease = null;
+    private ClusterReadiness readiness = null;
     private Client client = null;
     private Settings settings = null;
     private Collection<Class<? extends Plugin>> plugins = null;
+    private StorageMode storage = StorageMode.DISK;
+    private NodeProfile profile = NodeProfile.defaultProfile();
 
     public LocalClientProvider() {
     }
 
+    /**
+     * @param profile the profile of the node and of its indices, see {@link NodeProfile}
+     */
+    public LocalClientProvider(NodeProfile profile) {
+        this.profile = profile;
+    }
+
     public LocalClientProvider(Settings settings) {
         this(settings, emptyList());
     }
@@ -67,27 +82,47 @@ public class LocalClientProvider implements ClientProvider {
         this.plugins.addAll(plugins);
     }
 
+    /**
+     * @param storage the storage of the node directories, {@link StorageMode#MEMORY} places them on a memory-backed
+     *                file system when one is available
+     */
+    public LocalClientProvider(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage) {
+        this(settings, plugins);
+        this.storage = storage;
+    }
+
+    /**
+     * @param storage the storage of the node directories
+     * @param profile the profile of the node and of its indices, see {@link NodeProfile}
+     */
+    public LocalClientProvider(Settings settings, Collection<Class<? extends Plugin>> plugins, StorageMode storage, NodeProfile profile) {
+        this(settings, plugins, storage);
+        this.profile = profile;
+    }
+
     @Override
     public void open() {
-        if (node == null || node.isClosed()) {
-            // Build and start the node
-            node = new MyNode(buildNodeSettings(), buildNodePluginsList());
-            try {
-                node.start();
-            } catch (NodeValidationException e) {
-                throw new RuntimeException();
-            }
+        boolean leased = false;
+        if (lease == null || lease.node().isClosed()) {
+            // Lease a started node
+            lease = NodeRegistry.getInstance().acquire(buildNodeSettings(), buildNodePluginsList(), storage, profile);
 
             // Get a client
-            client = node.client();
-
-            // Wait for Yellow status
-            client.admin().cluster()
-                    .prepareHealth()
-                    .setWaitForYellowStatus()
-                    .setTimeout(TimeValue.timeValueMinutes(1))
-                    .execute()
-                    .actionGet();
+            client = lease.client();
+
+            // Track the cluster state of the node
+            if (readiness != null) {
+                readiness.close();
+            }
+            readiness = ClusterReadiness.of(lease.node());
+            leased = true;
+        }
+
+        // Wait for Yellow status, returns immediately once the node is ready
+        long start = System.nanoTime();
+        readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
+        if (leased) {
+            BootProfiler.getInstance().record(BootProfiler.Phase.WAIT_FOR_READY, System.nanoTime() - start);
         }
     }
 
@@ -98,18 +133,13 @@ public class LocalClientProvider implements ClientProvider {
 
     @Override
     public void close() {
-        if (client() != null) {
-            client.close();
-        }
-
-        if ((node != null) && (!node.isClosed())) {
-            try {
-                node.close();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-
-            deleteRecursively(new File("./target/elasticsearch-test/"));
+        if (lease != null) {
+            // The node is stopped by the registry once it is not used anymore
+            readiness.close();
+            readiness = null;
+            lease.release();
+            lease = null;
+            client = null;
         }
     }
 
@@ -118,53 +148,20 @@ public class LocalClientProvider implements ClientProvider {
      * Links are not handled properly.
      */
     public static void deleteRecursively(File dir) {
-        try {
-            Files.walkFileTree(dir.toPath(), new FileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.delete(file);
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                    return FileVisitResult.TERMINATE;
-                }
-
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.delete(dir);
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-        }
+        NodeDirectories.deleteRecursively(dir.toPath());
     }
 
     protected Settings buildNodeSettings() {
         // Build settings
 
         Settings.Builder builder = Settings.builder()
-                .put("node.name", "node-test-" + System.currentTimeMillis())
+                .put("node.name", DEFAULT_NODE_NAME)
                 .put("node.data", true)
                 .put("node.attr.local", true)
                 .put("node.max_local_storage_nodes", 10)
-                .put("cluster.name", "cluster-test-" + getLocalHostName())
-                .put("path.home", "./target/elasticsearch-test")
-                .put("path.data", "./target/elasticsearch-test/data")
-                .put("path.logs", "./target/elasticsearch-test/logs")
-                //.put("path.work", "./target/elasticsearch-test/work")
-                //.put("index.number_of_shards", "1")
-                //.put("index.number_of_replicas", "0")
-                //.put("cluster.routing.schedule", "50ms")
+                .put("cluster.name", clusterName())
                 .put("transport.type", "netty4")
-                .put("http.type", "netty4")
-                .put("http.enabled", "true");
+                .put("http.type", "netty4");
 
         if (settings != null) {
             builder.put(settings);
@@ -173,6 +170,18 @@ public class LocalClientProvider implements ClientProvider {
         return builder.build();
     }
 
+    /**
+     * @return the default cluster name, unique per JVM and per profile so that the pooled nodes of different
+     * profiles do not join each other's cluster
+     */
+    private String clusterName() {
+        String clusterName = "cluster-test-" + getLocalHostName() + "-" + NodeDirectories.forkId();
+        if (profile != NodeProfile.DEFAULT) {
+            clusterName = clusterName + "-" + profile.name().toLowerCase(Locale.ROOT);
+        }
+        return clusterName;
+    }
+
     protected Collection<Class<? extends Plugin>> buildNodePluginsList() {
         final Set<Class<? extends Plugin>> nodePlugins = new HashSet<>();
 
@@ -194,10 +203,4 @@ public class LocalClientProvider implements ClientProvider {
             return "unknown";
         }
     }
-
-    private static class MyNode extends Node {
-        public MyNode(Settings preparedSettings, Collection<Class<? extends Plugin>> classpathPlugins) {
-            super(InternalSettingsPreparer.prepareEnvironment(preparedSettings, null), classpathPlugins);
-        }
-    }
 }
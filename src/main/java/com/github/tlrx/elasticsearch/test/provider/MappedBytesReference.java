@@ -0,0 +1,79 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BytesReference over a region of a memory-mapped file. Parsers slice it and a slice is only copied onto the heap
+ * when it is read.
+ * <br/>
+ * Elasticsearch's own ByteBufferReference can not be used here: it copies slices of direct buffers at a wrong offset.
+ */
+public final class MappedBytesReference extends BytesReference {
+
+    private final ByteBuffer buffer;
+    private final int length;
+
+    /**
+     * @param buffer the bytes between the position and the limit of the buffer are referenced
+     */
+    public MappedBytesReference(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.length = this.buffer.remaining();
+    }
+
+    @Override
+    public byte get(int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public BytesReference slice(int from, int length) {
+        if ((from < 0) || (length < 0) || (from + length > this.length)) {
+            throw new IllegalArgumentException("can't slice a buffer with length [" + this.length
+                    + "], with slice parameters from [" + from + "], length [" + length + "]");
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(from + length);
+        slice.position(from);
+        return new MappedBytesReference(slice);
+    }
+
+    @Override
+    public BytesRef toBytesRef() {
+        byte[] bytes = new byte[length];
+        buffer.duplicate().get(bytes);
+        return new BytesRef(bytes);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        // The referenced bytes are outside of the heap
+        return 0;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * ResourceCache resolves classpath resources to local files. Resources inside jars are extracted once to a cache
+ * directory, keyed by the jar file, its size and its modification time, so that they are extracted again only when
+ * the jar changes.
+ */
+class ResourceCache {
+
+    private final static Logger LOGGER = Logger.getLogger(ResourceCache.class.getName());
+
+    /**
+     * System property used to change the cache directory, default to elasticsearch-test-resources in the temporary
+     * directory
+     */
+    static final String CACHE_PATH_PROPERTY = "elasticsearch.test.resource_cache";
+
+    private ResourceCache() {
+    }
+
+    /**
+     * @param resource the URL of a classpath resource
+     * @return the local file of the resource, null if the resource is neither a file nor a jar entry
+     */
+    static Path toPath(URL resource) throws IOException {
+        try {
+            if ("file".equals(resource.getProtocol())) {
+                return Paths.get(resource.toURI());
+            }
+            URLConnection connection = resource.openConnection();
+            if (!(connection instanceof JarURLConnection)) {
+                return null;
+            }
+            JarURLConnection jarConnection = (JarURLConnection) connection;
+            Path jar = Paths.get(jarConnection.getJarFileURL().toURI());
+            return extract(jarConnection, jar);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid resource URL [" + resource + "]", e);
+        }
+    }
+
+    private static Path extract(JarURLConnection connection, Path jar) throws IOException {
+        String key = jar.getFileName() + "-" + Files.size(jar) + "-" + Files.getLastModifiedTime(jar).toMillis();
+        Path cached = cacheDirectory().resolve(key).resolve(connection.getEntryName());
+        if (Files.exists(cached)) {
+            return cached;
+        }
+
+        // Extract to a temporary file first, so that concurrent JVMs never map a partially extracted file
+        Files.createDirectories(cached.getParent());
+        Path temp = Files.createTempFile(cached.getParent(), cached.getFileName().toString(), ".tmp");
+        try (InputStream input = connection.getInputStream()) {
+            Files.copy(input, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.info("Resource [" + connection.getEntryName() + "] of [" + jar + "] extracted to [" + cached + "]");
+        return cached;
+    }
+
+    private static Path cacheDirectory() {
+        String path = System.getProperty(CACHE_PATH_PROPERTY);
+        if (path != null) {
+            return Paths.get(path);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "elasticsearch-test-resources");
+    }
+}
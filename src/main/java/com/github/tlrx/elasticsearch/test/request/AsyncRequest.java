@@ -0,0 +1,93 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.Client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Request} which can be executed without blocking the calling thread, its result is completed by the
+ * listener of the client's action.
+ * <br/>
+ * Blocking requests can be executed asynchronously too with {@link #executeAsync(Request, Client, Executor)}, which runs
+ * them on an executor.
+ *
+ * @param <T>
+ */
+public interface AsyncRequest<T> extends Request<T> {
+
+    /**
+     * Executes the request without blocking
+     *
+     * @param client   the client used to execute the request
+     * @param executor the executor running the blocking parts of the request if any, such as loading data, so that
+     *                 they never run on the threads of the client
+     * @return the future result of the request
+     */
+    CompletableFuture<T> executeAsync(Client client, Executor executor);
+
+    /**
+     * Executes the request and waits for its result. Requests with blocking parts must override this method.
+     */
+    @Override
+    default T execute(Client client) throws ElasticsearchException {
+        return await(executeAsync(client, Runnable::run));
+    }
+
+    /**
+     * Executes a request without blocking: asynchronous requests are executed by the client, blocking requests are
+     * executed on the executor
+     *
+     * @param request  the request to execute
+     * @param client   the client used to execute the request
+     * @param executor the executor running blocking requests and the blocking parts of asynchronous requests
+     * @return the future result of the request
+     */
+    static <T> CompletableFuture<T> executeAsync(Request<T> request, Client client, Executor executor) {
+        if (request instanceof AsyncRequest) {
+            return ((AsyncRequest<T>) request).executeAsync(client, executor);
+        }
+        return CompletableFuture.supplyAsync(() -> request.execute(client), executor);
+    }
+
+    /**
+     * Waits for the result of a request, failures are thrown as they were thrown by a blocking request
+     *
+     * @param future the future result of the request
+     * @return the result of the request
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsSetupRuntimeException("Interrupted while waiting for a request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new EsSetupRuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BulkCache stores the bulk requests parsed from bulk data in the Elasticsearch wire format, so that the next loads of
+ * the same data read the requests instead of parsing the data again.
+ * <br/>
+ * Entries are keyed by the SHA-256 of the bulk data, of its format and of the default index and type. The least
+ * recently used entries are evicted once the cache is bigger than its maximum size. The cache used by
+ * {@link CreateIndex#withData(JSONProvider)} and by the bulk request annotation is enabled with the system property
+ * {@value #CACHE_PROPERTY}, set to true to use {@value #DEFAULT_DIRECTORY} or to the path of a directory.
+ */
+public class BulkCache {
+
+    private final static Logger LOGGER = Logger.getLogger(BulkCache.class.getName());
+
+    /**
+     * System property enabling the default cache
+     */
+    public static final String CACHE_PROPERTY = "elasticsearch.test.bulk_cache";
+
+    /**
+     * System property setting the maximum size of the default cache
+     */
+    public static final String SIZE_PROPERTY = "elasticsearch.test.bulk_cache.size";
+
+    /**
+     * Directory of the default cache, relative to the working directory
+     */
+    public static final String DEFAULT_DIRECTORY = "target/elasticsearch-test/bulk-cache";
+
+    /**
+     * Default maximum size of a cache
+     */
+    public static final ByteSizeValue DEFAULT_SIZE = new ByteSizeValue(1, ByteSizeUnit.GB);
+
+    private static final String EXTENSION = ".bulk";
+    private static final int FORMAT = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static BulkCache defaultCache;
+
+    private final Path directory;
+    private final ByteSizeValue maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BulkCache(Path directory, ByteSizeValue maxSize) {
+        Preconditions.checkNotNull(directory, "No directory specified");
+        Preconditions.checkNotNull(maxSize, "No maximum size specified");
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache configured by the system property {@value #CACHE_PROPERTY}, null if it is not set
+     */
+    public static synchronized BulkCache defaultCache() {
+        String property = System.getProperty(CACHE_PROPERTY);
+        if ((property == null) || property.trim().isEmpty() || "false".equals(property.trim())) {
+            return null;
+        }
+        Path directory = Paths.get("true".equals(property.trim()) ? DEFAULT_DIRECTORY : property.trim());
+        if ((defaultCache == null) || !defaultCache.directory.equals(directory)) {
+            defaultCache = new BulkCache(directory, ByteSizeValue.parseBytesSizeValue(
+                    System.getProperty(SIZE_PROPERTY, DEFAULT_SIZE.getStringRep()), SIZE_PROPERTY));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @return the number of loads served by the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of loads which were not in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Computes the key of bulk data: a file is hashed as stored, other providers as they are read
+     *
+     * @param provider   the bulk data
+     * @param parameters the parameters the parsed requests depend on
+     */
+    String key(JSONProvider provider, String... parameters) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new EsSetupRuntimeException(e);
+        }
+        Path path = BulkLoader.localFile(provider);
+        InputStream source = (path != null) ? Files.newInputStream(path) : provider.openStream();
+        try (InputStream input = source) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        for (String parameter : parameters) {
+            digest.update((byte) 0);
+            if (parameter != null) {
+                digest.update(parameter.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads the requests of an entry, counting a hit or a miss
+     *
+     * @param key         the key of the entry
+     * @param description the description of the bulk data in the logs
+     * @param consumer    receives the requests in the order they were stored
+     * @return the size of the entry, or -1 if there is no entry for this key
+     */
+    long read(String key, String description, Consumer<BulkRequest> consumer) throws IOException {
+        Path entry = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(entry)) {
+            misses.incrementAndGet();
+            LOGGER.info("Bulk cache miss for " + description + " " + statistics());
+            return -1;
+        }
+        try (StreamInput in = new InputStreamStreamInput(new BufferedInputStream(Files.newInputStream(entry), BUFFER_SIZE))) {
+            if ((in.readVInt() != FORMAT) || (in.readVInt() != Version.CURRENT.id)) {
+                // Written by another version, parsed again and overwritten
+                misses.incrementAndGet();
+                LOGGER.info("Bulk cache miss for " + description + ", entry of another version " + statistics());
+                return -1;
+            }
+            hits.incrementAndGet();
+            LOGGER.info("Bulk cache hit for " + description + " " + statistics());
+            while (in.readBoolean()) {
+                BulkRequest request = new BulkRequest();
+                request.readFrom(in);
+                consumer.accept(request);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(entry);
+            throw e;
+        }
+        // Eviction removes the entries which were not used recently
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return Files.size(entry);
+    }
+
+    /**
+     * @param key the key of the entry
+     * @return a writer of the entry, which is visible once committed
+     */
+    Writer writer(String key) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(directory.resolve(key + EXTENSION));
+    }
+
+    private String statistics() {
+        return "(" + hits.get() + " hits, " + misses.get() + " misses in this run)";
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is smaller than its maximum size
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long size = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                size += Files.size(entry);
+            }
+        }
+        entries.sort(Comparator.comparing(entry -> {
+            try {
+                return Files.getLastModifiedTime(entry);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path entry : entries) {
+            if (size <= maxSize.getBytes()) {
+                break;
+            }
+            long entrySize = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                size -= entrySize;
+                LOGGER.fine("Bulk cache entry [" + entry.getFileName() + "] evicted");
+            }
+        }
+    }
+
+    /**
+     * Writes the requests of an entry in a temporary file, moved to the entry once all the requests are written
+     */
+    class Writer {
+
+        private final Path entry;
+        private final Path temporary;
+        private final StreamOutput out;
+        private boolean failed = false;
+
+        private Writer(Path entry) throws IOException {
+            this.entry = entry;
+            this.temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            this.out = new OutputStreamStreamOutput(new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_SIZE));
+            this.out.writeVInt(FORMAT);
+            this.out.writeVInt(Version.CURRENT.id);
+        }
+
+        /**
+         * Writes a request, a failure to write abandons the entry but does not fail the load
+         */
+        synchronized void write(BulkRequest request) {
+            if (!failed) {
+                try {
+                    out.writeBoolean(true);
+                    request.writeTo(out);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to write bulk cache entry [" + entry.getFileName() + "]", e);
+                    failed = true;
+                }
+            }
+        }
+
+        /**
+         * Makes the entry visible if all the requests were written, then evicts old entries
+         */
+        synchronized void commit() {
+            try {
+                if (!failed) {
+                    out.writeBoolean(false);
+                }
+                out.close();
+                if (failed) {
+                    Files.deleteIfExists(temporary);
+                } else {
+                    Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    evict();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to write bulk cache entry [" + entry.getFileName() + "]", e);
+            }
+        }
+
+        /**
+         * Discards the entry
+         */
+        synchronized void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to discard bulk cache entry [" + entry.getFileName() + "]", e);
+            }
+        }
+    }
+}
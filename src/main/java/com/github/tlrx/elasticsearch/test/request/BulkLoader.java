@@ -0,0 +1,969 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.github.tlrx.elasticsearch.test.provider.Compression;
+import com.github.tlrx.elasticsearch.test.provider.FileBackedJSONProvider;
+import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
+import com.github.tlrx.elasticsearch.test.provider.MappedBytesReference;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.OperationRouting;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * BulkLoader streams newline delimited JSON bulk data into bulk requests limited in size and number of actions, so that
+ * the memory used to load data does not depend on the size of the data. The indices that received documents are
+ * refreshed once, after the last bulk request. Bulk data can also be encoded in SMILE, see
+ * {@link #withContentType(XContentType)}.
+ * <br/>
+ * Bulk requests are sent by a {@link BulkProcessor}: several of them can be in flight while the data is read (see
+ * {@link #withConcurrentRequests(int)}), and the actions rejected by a busy node are retried with a backoff. The load
+ * stops at the first bulk request with failures and fails with an {@link EsSetupRuntimeException}.
+ */
+public class BulkLoader {
+
+    private final static Logger LOGGER = Logger.getLogger(BulkLoader.class.getName());
+
+    /**
+     * Default maximum number of actions per bulk request
+     */
+    public static final int DEFAULT_BULK_ACTIONS = 1000;
+
+    /**
+     * Default maximum size of a bulk request
+     */
+    public static final ByteSizeValue DEFAULT_BULK_SIZE = new ByteSizeValue(5, ByteSizeUnit.MB);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final TimeValue CLOSE_TIMEOUT = TimeValue.timeValueMinutes(5);
+
+    private static final byte[] DELETE = "delete".getBytes(StandardCharsets.UTF_8);
+
+    private final Client client;
+    private int bulkActions = DEFAULT_BULK_ACTIONS;
+    private ByteSizeValue bulkSize = DEFAULT_BULK_SIZE;
+    private String defaultIndex;
+    private String defaultType;
+    private int concurrentRequests = 0;
+    private TimeValue flushInterval = null;
+    private BackoffPolicy backoff = BackoffPolicy.exponentialBackoff();
+    private int mappingSize = 1 << 30;
+    private XContentType contentType = XContentType.JSON;
+    private BulkCache cache;
+    private boolean shardPartitioning = false;
+    private boolean optimizedIndexing = false;
+
+    public BulkLoader(Client client) {
+        Preconditions.checkNotNull(client, "No Client specified");
+        this.client = client;
+    }
+
+    /**
+     * @param bulkActions the maximum number of actions per bulk request, default to {@value #DEFAULT_BULK_ACTIONS}
+     */
+    public BulkLoader withBulkActions(int bulkActions) {
+        Preconditions.checkArgument(bulkActions > 0, "Number of bulk actions must be positive");
+        this.bulkActions = bulkActions;
+        return this;
+    }
+
+    /**
+     * @param bulkSize the maximum size of a bulk request, default to 5mb. A single action bigger than this size is sent
+     *                 in its own bulk request.
+     */
+    public BulkLoader withBulkSize(ByteSizeValue bulkSize) {
+        Preconditions.checkNotNull(bulkSize, "No bulk size specified");
+        this.bulkSize = bulkSize;
+        return this;
+    }
+
+    /**
+     * @param defaultIndex the index of the actions which do not specify one
+     * @param defaultType  the type of the actions which do not specify one
+     */
+    public BulkLoader withDefaults(String defaultIndex, String defaultType) {
+        this.defaultIndex = defaultIndex;
+        this.defaultType = defaultType;
+        return this;
+    }
+
+    /**
+     * @param contentType the format of the bulk data: JSON lines, default, or SMILE documents separated by 0xFF bytes.
+     *                    Elasticsearch can not parse bulk data in other formats.
+     */
+    public BulkLoader withContentType(XContentType contentType) {
+        Preconditions.checkArgument((contentType == XContentType.JSON) || (contentType == XContentType.SMILE),
+                "Bulk data must be JSON or SMILE, not " + contentType);
+        this.contentType = contentType;
+        return this;
+    }
+
+    /**
+     * @param cache the cache of the requests parsed from the bulk data given by {@link #load(JSONProvider)}, default
+     *              to null: the data is parsed on every load
+     */
+    public BulkLoader withCache(BulkCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @param shardPartitioning true to group the actions by target shard, computed from the shard count of the index,
+     *                          the routing and the id of the actions like the node does. Each shard then gets its
+     *                          own bulk requests, sent concurrently with the bulk requests of the other shards
+     *                          (at least 1 per shard, see {@link #withConcurrentRequests(int)}). Default to false.
+     */
+    public BulkLoader withShardPartitioning(boolean shardPartitioning) {
+        this.shardPartitioning = shardPartitioning;
+        return this;
+    }
+
+    /**
+     * @param optimizedIndexing true to disable the periodic refresh, the synchronous translog and the replicas of the
+     *                          indices receiving documents while the data is loaded. The original settings are restored
+     *                          before the final refresh, then the load waits for the replicas. Default to false.
+     */
+    public BulkLoader withOptimizedIndexing(boolean optimizedIndexing) {
+        this.optimizedIndexing = optimizedIndexing;
+        return this;
+    }
+
+    /**
+     * @param concurrentRequests the number of bulk requests sent while the next one is being read, default to 0: bulk
+     *                           requests are sent by the calling thread one after the other
+     */
+    public BulkLoader withConcurrentRequests(int concurrentRequests) {
+        Preconditions.checkArgument(concurrentRequests >= 0, "Number of concurrent requests must be positive");
+        this.concurrentRequests = concurrentRequests;
+        return this;
+    }
+
+    /**
+     * @param flushInterval the interval at which pending actions are sent, whatever their number and size. Default to
+     *                      null: actions are sent when the limits are reached and at the end of the data.
+     */
+    public BulkLoader withFlushInterval(TimeValue flushInterval) {
+        this.flushInterval = flushInterval;
+        return this;
+    }
+
+    /**
+     * @param backoff the delays between the retries of the actions rejected because the bulk queue of a node is full,
+     *                default to an exponential backoff starting at 50ms with 8 retries
+     */
+    public BulkLoader withBackoff(BackoffPolicy backoff) {
+        Preconditions.checkNotNull(backoff, "No backoff policy specified");
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * @param mappingSize the size of the regions of a file mapped at once, used by tests
+     */
+    BulkLoader withMappingSize(int mappingSize) {
+        this.mappingSize = mappingSize;
+        return this;
+    }
+
+    /**
+     * Loads bulk data from a provider and refreshes the indices that received documents. The content of a
+     * {@link FileBackedJSONProvider} is memory-mapped when it resolves to a local file, the content of other providers
+     * is streamed. With a {@link BulkCache}, the requests parsed from the same data are read from the cache instead.
+     *
+     * @param provider the bulk data
+     * @return the statistics of the load
+     * @throws EsSetupRuntimeException if an action fails
+     */
+    public Stats load(JSONProvider provider) throws IOException {
+        if (cache == null) {
+            return load(provider, null);
+        }
+        String key = cache.key(provider, contentType.name(), defaultIndex, defaultType);
+        Stats stats = replay(key, provider);
+        if (stats != null) {
+            return stats;
+        }
+
+        BulkCache.Writer writer = cache.writer(key);
+        boolean loaded = false;
+        try {
+            stats = load(provider, writer);
+            loaded = true;
+            return stats;
+        } finally {
+            if (loaded) {
+                writer.commit();
+            } else {
+                writer.abort();
+            }
+        }
+    }
+
+    private Stats load(JSONProvider provider, BulkCache.Writer writer) throws IOException {
+        Path path = localFile(provider);
+        if (path != null) {
+            return load(path, writer);
+        }
+        return load(provider.openStream(), writer);
+    }
+
+    /**
+     * @return the local file of a {@link FileBackedJSONProvider}, null if the provider has no local file
+     */
+    static Path localFile(JSONProvider provider) {
+        if (provider instanceof FileBackedJSONProvider) {
+            return ((FileBackedJSONProvider) provider).toPath();
+        }
+        return null;
+    }
+
+    /**
+     * Sends the requests of a cache entry
+     *
+     * @return the statistics of the load, null if the cache has no entry for the key
+     */
+    private Stats replay(String key, JSONProvider provider) throws IOException {
+        long start = System.nanoTime();
+        Pipeline pipeline = pipeline(null);
+        Dispatcher dispatcher = new Dispatcher(pipeline);
+
+        long size;
+        try {
+            size = cache.read(key, describe(provider), request -> {
+                for (DocWriteRequest<?> action : request.requests()) {
+                    if (!pipeline.hasFailures()) {
+                        dispatcher.add(action);
+                    }
+                }
+                pipeline.added(request.numberOfActions(), 0);
+            });
+        } finally {
+            dispatcher.close();
+        }
+        if (size < 0) {
+            return null;
+        }
+        pipeline.added(0, size);
+        return complete(pipeline, start);
+    }
+
+    private static String describe(JSONProvider provider) {
+        Path path = localFile(provider);
+        if (path != null) {
+            return "[" + path.getFileName() + "]";
+        }
+        return "[" + provider.getClass().getName() + "]";
+    }
+
+    /**
+     * Loads bulk data and refreshes the indices that received documents
+     *
+     * @param input the bulk data, closed once loaded
+     * @return the statistics of the load
+     * @throws EsSetupRuntimeException if an action fails
+     */
+    public Stats load(InputStream input) throws IOException {
+        return load(input, null);
+    }
+
+    private Stats load(InputStream input, BulkCache.Writer writer) throws IOException {
+        long start = System.nanoTime();
+        Pipeline pipeline = pipeline(writer);
+        Dispatcher dispatcher = new Dispatcher(pipeline);
+
+        Line line = new Line(separator());
+        Action action = new Action();
+        long lineNumber = 0;
+        try (InputStream in = input) {
+            while (!pipeline.hasFailures() && line.read(in)) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                boolean complete = action.hasLines() || isDeleteAction(line.buffer(), 0, line.length);
+                action.append(line, separator());
+                if (complete) {
+                    try {
+                        dispatcher.add(action.bytes());
+                    } catch (Exception e) {
+                        throw new EsSetupRuntimeException("Invalid bulk action at line " + lineNumber, e);
+                    }
+                    pipeline.added(1, action.length);
+                    action.reset();
+                }
+            }
+            if (action.hasLines()) {
+                throw new EsSetupRuntimeException("Bulk action at line " + lineNumber + " has no source");
+            }
+        } finally {
+            dispatcher.close();
+        }
+        return complete(pipeline, start);
+    }
+
+    /**
+     * Loads bulk data from a file and refreshes the indices that received documents. The file is memory-mapped by
+     * regions of 1gb, and each region is sliced at action boundaries into bulk requests that reference the mapped
+     * memory instead of copying the data onto the heap. A compressed file is streamed instead.
+     *
+     * @param file the bulk data
+     * @return the statistics of the load
+     * @throws EsSetupRuntimeException if an action fails
+     */
+    public Stats load(Path file) throws IOException {
+        return load(file, null);
+    }
+
+    private Stats load(Path file, BulkCache.Writer writer) throws IOException {
+        if (Compression.detect(file) != Compression.NONE) {
+            // Compressed data can not be sliced, it is decompressed as it is streamed
+            return load(Compression.decompress(file.getFileName().toString(), Files.newInputStream(file)), writer);
+        }
+
+        long start = System.nanoTime();
+        Pipeline pipeline = pipeline(writer);
+        Dispatcher dispatcher = new Dispatcher(pipeline);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while ((position < size) && !pipeline.hasFailures()) {
+                int length = (int) Math.min(mappingSize, size - position);
+                boolean last = (position + length == size);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int consumed = new Slicer(dispatcher, pipeline, region, length, last).slice();
+                if (consumed == 0) {
+                    throw new EsSetupRuntimeException("Bulk action at offset " + position + " of [" + file
+                            + "] is larger than " + new ByteSizeValue(mappingSize));
+                }
+                position += consumed;
+            }
+        } finally {
+            dispatcher.close();
+        }
+        return complete(pipeline, start);
+    }
+
+    private Pipeline pipeline(BulkCache.Writer cacheWriter) {
+        return new Pipeline(cacheWriter, optimizedIndexing ? new OptimizedIndexing(client) : null);
+    }
+
+    private BulkProcessor processor(Pipeline pipeline, int concurrentRequests) {
+        return BulkProcessor.builder(client, pipeline)
+                .setBulkActions(bulkActions)
+                .setBulkSize(bulkSize)
+                .setConcurrentRequests(concurrentRequests)
+                .setFlushInterval(flushInterval)
+                .setBackoffPolicy(backoff)
+                .build();
+    }
+
+    /**
+     * Adds the actions to a single bulk processor or, with shard partitioning, to a bulk processor per target shard
+     */
+    private class Dispatcher {
+
+        private final Pipeline pipeline;
+        private final BulkProcessor processor;
+        private final Map<String, IndexMetaData> indices = new HashMap<>();
+        private final Map<String, BulkProcessor> partitions = new HashMap<>();
+
+        Dispatcher(Pipeline pipeline) {
+            this.pipeline = pipeline;
+            this.processor = shardPartitioning ? null : processor(pipeline, concurrentRequests);
+        }
+
+        void add(BytesReference data) throws Exception {
+            if (processor != null) {
+                processor.add(data, defaultIndex, defaultType, contentType);
+                return;
+            }
+            // Parsed here rather than by the bulk processor, so that each action can be routed
+            BulkRequest request = new BulkRequest().add(data, defaultIndex, defaultType, contentType);
+            for (DocWriteRequest<?> action : request.requests()) {
+                add(action);
+            }
+        }
+
+        void add(DocWriteRequest<?> action) {
+            if (processor != null) {
+                processor.add(action);
+                return;
+            }
+            String partition = action.index() + "#" + shard(action);
+            BulkProcessor partitionProcessor = partitions.get(partition);
+            if (partitionProcessor == null) {
+                // Each partition has a bulk request in flight, at least
+                partitionProcessor = processor(pipeline, Math.max(1, concurrentRequests));
+                partitions.put(partition, partitionProcessor);
+            }
+            partitionProcessor.add(action);
+        }
+
+        /**
+         * @return the shard of the action as computed by the node, -1 if it is not known before indexing: the id is
+         * generated, or the index is an alias or does not exist yet
+         */
+        private int shard(DocWriteRequest<?> action) {
+            if (action.id() == null) {
+                return -1;
+            }
+            if (!indices.containsKey(action.index())) {
+                IndexMetaData metaData = client.admin().cluster().prepareState()
+                        .clear()
+                        .setMetaData(true)
+                        .setIndices(action.index())
+                        .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                        .get()
+                        .getState().metaData().index(action.index());
+                indices.put(action.index(), metaData);
+            }
+            IndexMetaData metaData = indices.get(action.index());
+            if (metaData == null) {
+                return -1;
+            }
+            return OperationRouting.generateShardId(metaData, action.id(), action.routing());
+        }
+
+        /**
+         * Flushes the pending actions and waits for the bulk requests in flight
+         */
+        void close() {
+            List<BulkProcessor> processors = (processor != null) ?
+                    Collections.singletonList(processor) : new ArrayList<>(partitions.values());
+            // Flush all the partitions before waiting, so that their last bulk requests are sent concurrently
+            for (BulkProcessor processor : processors) {
+                processor.flush();
+            }
+            try {
+                for (BulkProcessor processor : processors) {
+                    awaitClose(processor);
+                }
+            } finally {
+                if (pipeline.indexing != null) {
+                    pipeline.indexing.restore();
+                }
+            }
+        }
+
+        private void awaitClose(BulkProcessor processor) {
+            try {
+                if (!processor.awaitClose(CLOSE_TIMEOUT.millis(), TimeUnit.MILLISECONDS)) {
+                    throw new EsSetupRuntimeException("Bulk requests not completed after " + CLOSE_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EsSetupRuntimeException("Interrupted while waiting for bulk requests", e);
+            }
+        }
+    }
+
+    /**
+     * Checks the failures, refreshes the indices that received documents, waits for their replicas in optimized
+     * indexing mode and logs the statistics of the load
+     */
+    private Stats complete(Pipeline pipeline, long start) {
+        pipeline.checkFailures();
+
+        if (!pipeline.indices.isEmpty()) {
+            client.admin().indices().prepareRefresh(pipeline.indices.toArray(new String[pipeline.indices.size()])).get();
+        }
+        if (pipeline.indexing != null) {
+            pipeline.indexing.awaitReplicas();
+        }
+
+        Stats stats = new Stats(new ArrayList<>(pipeline.indices), pipeline.actions, pipeline.bytes, pipeline.bulks.get(),
+                System.nanoTime() - start);
+        if (stats.actions > 0) {
+            LOGGER.info("Bulk data loaded: " + stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Collects the results of the bulk requests, which are received on the threads of the client when requests are
+     * sent concurrently
+     */
+    private static class Pipeline implements BulkProcessor.Listener {
+
+        private final Set<String> indices = Collections.synchronizedSet(new LinkedHashSet<>());
+        private final AtomicInteger bulks = new AtomicInteger();
+        private long actions = 0;
+        private long bytes = 0;
+        private volatile String failure;
+        private volatile Throwable cause;
+        private final BulkCache.Writer cacheWriter;
+        private final OptimizedIndexing indexing;
+
+        Pipeline(BulkCache.Writer cacheWriter, OptimizedIndexing indexing) {
+            this.cacheWriter = cacheWriter;
+            this.indexing = indexing;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            if (cacheWriter != null) {
+                cacheWriter.write(request);
+            }
+            if (indexing != null) {
+                indexing.apply(request);
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            bulks.incrementAndGet();
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    indices.add(item.getIndex());
+                }
+            }
+            if (response.hasFailures() && (failure == null)) {
+                failure = response.buildFailureMessage();
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            bulks.incrementAndGet();
+            if (this.failure == null) {
+                this.cause = failure;
+                this.failure = failure.getMessage();
+            }
+        }
+
+        /**
+         * Counts the actions added to the bulk processor
+         */
+        void added(long actions, long bytes) {
+            this.actions += actions;
+            this.bytes += bytes;
+        }
+
+        boolean hasFailures() {
+            return failure != null;
+        }
+
+        void checkFailures() {
+            if (failure != null) {
+                throw new EsSetupRuntimeException("Bulk request has failures: " + failure, cause);
+            }
+        }
+    }
+
+    /**
+     * The lines of an action, copied once complete since the bulk processor keeps them until they are sent
+     */
+    private static class Action {
+
+        private byte[] bytes = new byte[1024];
+        private int length = 0;
+
+        void append(Line line, byte separator) {
+            if (length + line.length + 1 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + line.length + 1));
+            }
+            System.arraycopy(line.bytes, 0, bytes, length, line.length);
+            length += line.length;
+            bytes[length++] = separator;
+        }
+
+        boolean hasLines() {
+            return length > 0;
+        }
+
+        BytesReference bytes() {
+            return new BytesArray(Arrays.copyOf(bytes, length));
+        }
+
+        void reset() {
+            length = 0;
+        }
+    }
+
+    /**
+     * Slices a memory-mapped region of bulk data at action boundaries and adds the slices to the bulk processors
+     */
+    private class Slicer {
+
+        private final Dispatcher dispatcher;
+        private final Pipeline pipeline;
+        private final ByteBuffer region;
+        private final int length;
+        private final boolean last;
+
+        private int sliceStart = 0;
+        private int sliceActions = 0;
+
+        Slicer(Dispatcher dispatcher, Pipeline pipeline, ByteBuffer region, int length, boolean last) {
+            this.dispatcher = dispatcher;
+            this.pipeline = pipeline;
+            this.region = region;
+            this.length = length;
+            this.last = last;
+        }
+
+        /**
+         * @return the number of bytes of the region consumed, which ends with the last complete action
+         */
+        int slice() {
+            int actionStart = 0;
+            int actionLineEnd = 0;
+            int actionEnd = 0;
+            boolean sourceExpected = false;
+            boolean contiguous = true;
+            int lineStart = 0;
+            while ((lineStart < length) && !pipeline.hasFailures()) {
+                int lineEnd = lineStart;
+                byte separator = separator();
+                while ((lineEnd < length) && (region.get(lineEnd) != separator)) {
+                    lineEnd++;
+                }
+                if ((lineEnd == length) && !last) {
+                    // The line continues in the next region
+                    break;
+                }
+                int next = Math.min(lineEnd + 1, length);
+
+                if (isBlank(region, lineStart, lineEnd)) {
+                    if (sourceExpected) {
+                        // Skipped as in streamed data, the action and its source are then copied
+                        contiguous = false;
+                    } else {
+                        // Leave the blank line out of the slices
+                        send(actionEnd);
+                        sliceStart = next;
+                        actionEnd = next;
+                    }
+                } else if (sourceExpected || isDeleteAction(region, lineStart, lineEnd)) {
+                    boolean delete = !sourceExpected;
+                    sourceExpected = false;
+                    if (delete) {
+                        actionStart = lineStart;
+                    }
+                    if (!contiguous || (lineEnd == length)) {
+                        // The action is split by blank lines, or the last line of the data has no separator, which
+                        // the bulk parser requires
+                        send(actionStart);
+                        if (delete) {
+                            addCopy(lineStart, lineEnd);
+                        } else {
+                            addCopy(actionStart, actionLineEnd, lineStart, lineEnd);
+                        }
+                        sliceStart = next;
+                        contiguous = true;
+                    } else {
+                        sliceActions++;
+                    }
+                    actionEnd = next;
+                    if ((sliceActions >= bulkActions) || (actionEnd - sliceStart >= bulkSize.getBytes())) {
+                        send(actionEnd);
+                    }
+                } else {
+                    sourceExpected = true;
+                    actionStart = lineStart;
+                    actionLineEnd = lineEnd;
+                }
+                lineStart = next;
+            }
+            if (last && sourceExpected) {
+                throw new EsSetupRuntimeException("Bulk action at the end of the data has no source");
+            }
+            send(actionEnd);
+            return last ? length : actionEnd;
+        }
+
+        /**
+         * Adds the actions of the slice ending at the given offset
+         */
+        private void send(int sliceEnd) {
+            if (sliceActions > 0) {
+                ByteBuffer slice = region.duplicate();
+                slice.limit(sliceEnd);
+                slice.position(sliceStart);
+                add(new MappedBytesReference(slice), sliceActions, sliceEnd - sliceStart);
+            }
+            sliceStart = sliceEnd;
+            sliceActions = 0;
+        }
+
+        /**
+         * Adds a copy of the lines of an action, given by pairs of start and end offsets, each followed by a separator
+         */
+        private void addCopy(int... lines) {
+            int size = 0;
+            for (int i = 0; i < lines.length; i += 2) {
+                size += lines[i + 1] - lines[i] + 1;
+            }
+            byte[] action = new byte[size];
+            int offset = 0;
+            for (int i = 0; i < lines.length; i += 2) {
+                ByteBuffer copy = region.duplicate();
+                copy.position(lines[i]);
+                copy.get(action, offset, lines[i + 1] - lines[i]);
+                offset += lines[i + 1] - lines[i];
+                action[offset++] = separator();
+            }
+            add(new BytesArray(action), 1, action.length);
+        }
+
+        private void add(BytesReference data, int actions, int bytes) {
+            try {
+                dispatcher.add(data);
+            } catch (Exception e) {
+                throw new EsSetupRuntimeException("Invalid bulk data", e);
+            }
+            pipeline.added(actions, bytes);
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the byte ending each line of bulk data
+     */
+    private byte separator() {
+        return contentType.xContent().streamSeparator();
+    }
+
+    /**
+     * @return true if the first field of the line is "delete", the only action without a source line
+     */
+    private boolean isDeleteAction(ByteBuffer buffer, int from, int to) {
+        if (contentType == XContentType.JSON) {
+            return isJsonDeleteAction(buffer, from, to);
+        }
+        // Binary action lines are parsed, they are small compared to the sources
+        byte[] line = new byte[to - from];
+        ByteBuffer copy = buffer.duplicate();
+        copy.position(from);
+        copy.get(line);
+        try (XContentParser parser = contentType.xContent().createParser(NamedXContentRegistry.EMPTY, line)) {
+            return (parser.nextToken() == XContentParser.Token.START_OBJECT)
+                    && (parser.nextToken() == XContentParser.Token.FIELD_NAME)
+                    && "delete".equals(parser.currentName());
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException("Invalid bulk action", e);
+        }
+    }
+
+    private static boolean isJsonDeleteAction(ByteBuffer buffer, int from, int to) {
+        int start = from;
+        while ((start < to) && (buffer.get(start) != '"')) {
+            start++;
+        }
+        start++;
+        if (start + DELETE.length >= to) {
+            return false;
+        }
+        for (int i = 0; i < DELETE.length; i++) {
+            if (buffer.get(start + i) != DELETE[i]) {
+                return false;
+            }
+        }
+        return buffer.get(start + DELETE.length) == '"';
+    }
+
+    /**
+     * A line of bulk data, its buffers are reused from one line to the next
+     */
+    private static class Line {
+
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+
+        private byte[] bytes = new byte[1024];
+        private int length = 0;
+
+        private final byte separator;
+
+        Line(byte separator) {
+            this.separator = separator;
+        }
+
+        /**
+         * @return false if the end of the stream is reached and no line was read
+         */
+        boolean read(InputStream in) throws IOException {
+            length = 0;
+            boolean newLine = false;
+            while (!newLine) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit == -1) {
+                        limit = 0;
+                        break;
+                    }
+                }
+                int end = position;
+                while ((end < limit) && (buffer[end] != separator)) {
+                    end++;
+                }
+                append(position, end - position);
+                newLine = (end < limit);
+                position = newLine ? end + 1 : end;
+            }
+            if ((separator == '\n') && (length > 0) && (bytes[length - 1] == '\r')) {
+                length--;
+            }
+            return newLine || (length > 0);
+        }
+
+        private void append(int offset, int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+            System.arraycopy(buffer, offset, bytes, length, count);
+            length += count;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        boolean isBlank() {
+            return BulkLoader.isBlank(buffer(), 0, length);
+        }
+    }
+
+    /**
+     * Statistics of a bulk data load
+     */
+    public static class Stats {
+
+        private final List<String> indices;
+        private final long actions;
+        private final long bytes;
+        private final int bulks;
+        private final long nanos;
+
+        Stats(List<String> indices, long actions, long bytes, int bulks, long nanos) {
+            this.indices = Collections.unmodifiableList(indices);
+            this.actions = actions;
+            this.bytes = bytes;
+            this.bulks = bulks;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the names of the indices that received documents
+         */
+        public List<String> getIndices() {
+            return indices;
+        }
+
+        /**
+         * @return the number of actions loaded
+         */
+        public long getActions() {
+            return actions;
+        }
+
+        /**
+         * @return the number of bytes of bulk data loaded
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of bulk requests sent
+         */
+        public int getBulks() {
+            return bulks;
+        }
+
+        /**
+         * @return the time of the load, refresh included
+         */
+        public TimeValue getTime() {
+            return TimeValue.timeValueNanos(nanos);
+        }
+
+        /**
+         * @return the number of actions loaded per second
+         */
+        public double getDocsPerSecond() {
+            return (nanos > 0) ? actions * 1e9 / nanos : 0;
+        }
+
+        /**
+         * @return the number of megabytes of bulk data loaded per second
+         */
+        public double getMegabytesPerSecond() {
+            return (nanos > 0) ? bytes * 1e9 / nanos / (1024 * 1024) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d actions, %s in %d bulks, %s (%.0f docs/s, %.2f MB/s)",
+                    actions, new ByteSizeValue(bytes), bulks, getTime(), getDocsPerSecond(), getMegabytesPerSecond());
+        }
+    }
+}
@@ -18,17 +18,18 @@
  */
 package com.github.tlrx.elasticsearch.test.request;
 
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A {@link Request} used to count the documents stored in indices.
  */
-public class Count implements Request<Long> {
+public class Count implements AsyncRequest<Long> {
 
     private String[] indices;
 
@@ -40,12 +41,20 @@ public class Count implements Request<Long> {
     }
 
     @Override
-    public Long execute(Client client) throws ElasticsearchException {
-        SearchResponse response = client.prepareSearch(indices)
+    public CompletableFuture<Long> executeAsync(Client client, Executor executor) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        client.prepareSearch(indices)
                 .setSource(new SearchSourceBuilder().size(0))
-                .execute()
-                .actionGet();
-        return response.getHits().getTotalHits();
+                .execute(ActionListener.wrap(
+                        response -> future.complete(response.getHits().getTotalHits()), future::completeExceptionally));
+        return future;
+    }
+
+    /**
+     * @return the names of the indices
+     */
+    String[] indices() {
+        return indices;
     }
 
     @Override
@@ -21,34 +21,49 @@ package com.github.tlrx.elasticsearch.test.request;
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A {@link Request} used to create indices.
  */
-public class CreateIndex implements Request<Void> {
+public class CreateIndex implements AsyncRequest<Void> {
+
+    /**
+     * Resource name telling the settings loader that the settings are JSON
+     */
+    private static final String JSON_SETTINGS = "settings.json";
 
     private final CreateIndexRequest request;
     private final String index;
-    private final List<JSONProvider> bulks;
+    private final List<Tuple<JSONProvider, XContentType>> bulks;
+    private int bulkActions = BulkLoader.DEFAULT_BULK_ACTIONS;
+    private ByteSizeValue bulkSize = BulkLoader.DEFAULT_BULK_SIZE;
+    private boolean shardPartitioning = false;
+    private boolean optimizedIndexing = false;
+    private ForceMerge forceMerge;
 
     public CreateIndex(String index) {
         this.index = index;
         request = new CreateIndexRequest(index);
-        bulks = new ArrayList<JSONProvider>();
+        bulks = new ArrayList<Tuple<JSONProvider, XContentType>>();
     }
 
     public CreateIndex withSettings(Settings settings) {
@@ -65,7 +80,13 @@ public class CreateIndex implements Request<Void> {
     }
 
     public CreateIndex withSettings(JSONProvider jsonProvider) {
-        withSettings(jsonProvider.toJson(), XContentType.JSON);
+        try (InputStream source = jsonProvider.openStream()) {
+            withSettings(Settings.builder()
+                    .loadFromStream(JSON_SETTINGS, source, false)
+                    .build());
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
         return this;
     }
 
@@ -90,40 +111,147 @@ public class CreateIndex implements Request<Void> {
     }
 
     public CreateIndex withSource(JSONProvider jsonProvider) {
-        request.source(jsonProvider.toJson(), XContentType.JSON);
+        request.source(jsonProvider.toBytes(), XContentType.JSON);
         return this;
     }
 
+    /**
+     * Adds newline delimited JSON bulk data, loaded once the index is created. The data is streamed into bulk requests
+     * limited by {@link #withBulkActions(int)} and {@link #withBulkSize(ByteSizeValue)}; the data of a file or of a
+     * classpath resource is memory-mapped instead.
+     */
     public CreateIndex withData(JSONProvider jsonProvider) {
-        bulks.add(jsonProvider);
+        return withData(jsonProvider, XContentType.JSON);
+    }
+
+    /**
+     * Adds bulk data encoded in the given format, loaded once the index is created
+     *
+     * @param contentType {@link XContentType#JSON} or {@link XContentType#SMILE}, see
+     *                    {@link BulkLoader#withContentType(XContentType)}
+     */
+    public CreateIndex withData(JSONProvider jsonProvider, XContentType contentType) {
+        bulks.add(new Tuple<>(jsonProvider, contentType));
+        return this;
+    }
+
+    /**
+     * @param bulkActions the maximum number of actions per bulk request used to load data
+     */
+    public CreateIndex withBulkActions(int bulkActions) {
+        this.bulkActions = bulkActions;
+        return this;
+    }
+
+    /**
+     * @param bulkSize the maximum size of a bulk request used to load data
+     */
+    public CreateIndex withBulkSize(ByteSizeValue bulkSize) {
+        this.bulkSize = bulkSize;
+        return this;
+    }
+
+    /**
+     * @param optimizedIndexing true to load the data with settings favoring indexing over search, restored once the
+     *                          data is loaded, see {@link BulkLoader#withOptimizedIndexing(boolean)}
+     */
+    public CreateIndex withOptimizedIndexing(boolean optimizedIndexing) {
+        this.optimizedIndexing = optimizedIndexing;
+        return this;
+    }
+
+    /**
+     * @param shardPartitioning true to send the data in bulk requests per target shard, see
+     *                          {@link BulkLoader#withShardPartitioning(boolean)}
+     */
+    public CreateIndex withShardPartitioning(boolean shardPartitioning) {
+        this.shardPartitioning = shardPartitioning;
+        return this;
+    }
+
+    /**
+     * @param maxSegments   the maximum number of segments per shard the index is force-merged to once the data is
+     *                      loaded, 0 to not force-merge the index
+     * @param waitForMerges true to also wait for the merges running in the background, see
+     *                      {@link ForceMerge#withWaitForMerges(boolean)}
+     */
+    public CreateIndex withForceMerge(int maxSegments, boolean waitForMerges) {
+        this.forceMerge = (maxSegments > 0) ? new ForceMerge(index).withMaxSegments(maxSegments).withWaitForMerges(waitForMerges) : null;
         return this;
     }
 
     @Override
     public Void execute(final Client client) throws ElasticsearchException {
-        BulkRequestBuilder bulkRequestBuilder = null;
         try {
-            if ((bulks != null) && (!bulks.isEmpty())) {
-                bulkRequestBuilder = client.prepareBulk();
-                for (JSONProvider jsonProvider : bulks) {
-                    byte[] content = jsonProvider.toJson().getBytes("UTF-8");
-                    bulkRequestBuilder.add(content, 0, content.length, XContentType.JSON);
-                }
+            populate(client, client.admin().indices().create(request).get());
+        } catch (Exception e) {
+            throw new EsSetupRuntimeException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Creates the index without blocking, its data is loaded on the executor once the index is created
+     */
+    @Override
+    public CompletableFuture<Void> executeAsync(final Client client, Executor executor) {
+        CompletableFuture<CreateIndexResponse> created = new CompletableFuture<>();
+        client.admin().indices().create(request, ActionListener.wrap(
+                created::complete,
+                e -> created.completeExceptionally(new EsSetupRuntimeException(e))));
+        if (bulks.isEmpty() && (forceMerge == null)) {
+            return created.thenApply(response -> null);
+        }
+        return created.thenApplyAsync(response -> {
+            try {
+                populate(client, response);
+            } catch (Exception e) {
+                throw new EsSetupRuntimeException(e);
             }
+            return null;
+        }, executor);
+    }
 
-            CreateIndexResponse response = client.admin().indices().create(request).get();
-            if ((response.isAcknowledged()) && (bulkRequestBuilder != null)) {
-                BulkResponse bulkResponse = bulkRequestBuilder.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+    /**
+     * Loads the data of the created index and force-merges it
+     */
+    private void populate(Client client, CreateIndexResponse response) throws Exception {
+        if ((response.isAcknowledged()) && (!bulks.isEmpty())) {
+            if (!response.isShardsAcknowledged()) {
+                // Primaries were not started in time, wait for this index only before loading data
+                client.admin().cluster().prepareHealth(index)
+                        .setWaitForYellowStatus()
+                        .setTimeout(TimeValue.timeValueMinutes(1))
                         .execute()
                         .actionGet();
-                if (bulkResponse.hasFailures()) {
-                    throw new EsSetupRuntimeException("Bulk request has failures: "+bulkResponse.buildFailureMessage());
-                }
             }
-        } catch (Exception e) {
-            throw new EsSetupRuntimeException(e);
+            BulkLoader loader = new BulkLoader(client)
+                    .withBulkActions(bulkActions)
+                    .withBulkSize(bulkSize)
+                    .withShardPartitioning(shardPartitioning)
+                    .withOptimizedIndexing(optimizedIndexing)
+                    .withCache(BulkCache.defaultCache());
+            for (Tuple<JSONProvider, XContentType> bulk : bulks) {
+                loader.withContentType(bulk.v2()).load(bulk.v1());
+            }
         }
-        return null;
+        if ((response.isAcknowledged()) && (forceMerge != null)) {
+            forceMerge.execute(client);
+        }
+    }
+
+    /**
+     * @return the name of the index
+     */
+    String index() {
+        return index;
+    }
+
+    /**
+     * @return true if data is loaded once the index is created, it may target other indices
+     */
+    boolean hasData() {
+        return !bulks.isEmpty();
     }
 
     @Override
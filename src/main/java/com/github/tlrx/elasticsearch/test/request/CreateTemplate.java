@@ -20,22 +20,31 @@ package com.github.tlrx.elasticsearch.test.request;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
-import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateAction;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
-import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static java.util.Collections.singletonList;
 
 /**
  * A {@link Request} used to create indices templates.
  */
-public class CreateTemplate implements Request<Void> {
+public class CreateTemplate implements AsyncRequest<Void> {
+
+    /**
+     * Resource name telling the settings loader that the settings are JSON
+     */
+    private static final String JSON_SETTINGS = "settings.json";
 
     private final PutIndexTemplateRequest request;
     private String name;
@@ -64,7 +73,13 @@ public class CreateTemplate implements Request<Void> {
     }
 
     public CreateTemplate withSettings(JSONProvider jsonProvider) {
-        withSettings(jsonProvider.toJson(), XContentType.JSON);
+        try (InputStream source = jsonProvider.openStream()) {
+            withSettings(Settings.builder()
+                    .loadFromStream(JSON_SETTINGS, source, false)
+                    .build());
+        } catch (IOException e) {
+            throw new EsSetupRuntimeException(e);
+        }
         return this;
     }
 
@@ -79,7 +94,7 @@ public class CreateTemplate implements Request<Void> {
     }
 
     public CreateTemplate withMapping(String type, JSONProvider jsonProvider) {
-        withMapping(type, jsonProvider.toJson());
+        request.mapping(type, jsonProvider.toBytes(), XContentType.JSON);
         return this;
     }
 
@@ -89,22 +104,36 @@ public class CreateTemplate implements Request<Void> {
     }
 
     public CreateTemplate withSource(JSONProvider jsonProvider) {
-        request.source(jsonProvider.toJson(), XContentType.JSON);
+        request.source(jsonProvider.toBytes(), XContentType.JSON);
         return this;
     }
 
     @Override
-    public Void execute(final Client client) throws ElasticsearchException {
-        try {
-            PutIndexTemplateResponse response = client.admin().indices().execute(PutIndexTemplateAction.INSTANCE, request).get();
-
-            if (!response.isAcknowledged()) {
-                throw new EsSetupRuntimeException("Exception when putting index template");
-            }
-        } catch (Exception e) {
-            throw new EsSetupRuntimeException(e);
-        }
-        return null;
+    public CompletableFuture<Void> executeAsync(final Client client, Executor executor) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client.admin().indices().execute(PutIndexTemplateAction.INSTANCE, request, ActionListener.wrap(
+                response -> {
+                    if (!response.isAcknowledged()) {
+                        throw new EsSetupRuntimeException("Exception when putting index template");
+                    }
+                    future.complete(null);
+                },
+                e -> future.completeExceptionally(new EsSetupRuntimeException(e))));
+        return future;
+    }
+
+    /**
+     * @return the name of the template
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * @return the index patterns the template applies to
+     */
+    List<String> patterns() {
+        return request.patterns();
     }
 
     @Override
@@ -20,33 +20,89 @@ package com.github.tlrx.elasticsearch.test.request;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
-import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * A {@link Request} used to delete documents.
  */
-public class Delete implements Request<Void> {
+public class Delete implements RefreshableRequest<Void> {
 
     private final DeleteRequest request;
+    private RefreshStrategy refreshStrategy;
 
     public Delete(String index, String type, String id) {
-        request = new DeleteRequest(index, type, id).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        request = new DeleteRequest(index, type, id);
+    }
+
+    /**
+     * @param refreshStrategy when the document becomes visible to searches, default to the strategy of the
+     *                        {@link com.github.tlrx.elasticsearch.test.EsSetup} executing the request
+     */
+    public Delete withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        this.refreshStrategy = refreshStrategy;
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Void> executeAsync(final Client client, Executor executor) {
+        return send(client, RefreshStrategy.outsideBatch(refreshStrategy));
+    }
+
+    /**
+     * Sends the request, refreshed according to the given strategy
+     */
+    @Override
+    public CompletableFuture<Void> send(final Client client, RefreshStrategy strategy) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        request.setRefreshPolicy(strategy.policy());
+        client.delete(request, ActionListener.wrap(
+                response -> future.complete(null),
+                e -> future.completeExceptionally(new EsSetupRuntimeException(e))));
+        return future;
+    }
+
+    /**
+     * @return the request of the document, sent in a bulk request by {@link DocumentBulk}
+     */
+    DeleteRequest request() {
+        return request;
+    }
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    @Override
+    public RefreshStrategy refreshStrategy() {
+        return refreshStrategy;
     }
 
     @Override
-    public Void execute(final Client client) throws ElasticsearchException {
-        try {
-            DeleteResponse response = client.delete(request).get();
-        } catch (Exception e) {
-            throw new EsSetupRuntimeException(e);
-        }
-        return null;
+    public Collection<String> writtenIndices() {
+        return Collections.singleton(index());
+    }
+
+    /**
+     * @return the name of the index of the document
+     */
+    String index() {
+        return request.index();
+    }
+
+    /**
+     * @return the id of the document, null if generated
+     */
+    String id() {
+        return request.id();
     }
 
     @Override
@@ -18,15 +18,17 @@
  */
 package com.github.tlrx.elasticsearch.test.request;
 
-import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A {@link Request} used to delete one or more indices.
  */
-public class DeleteIndices implements Request<Void> {
+public class DeleteIndices implements AsyncRequest<Void> {
 
     private String[] indices;
 
@@ -35,9 +37,18 @@ public class DeleteIndices implements Request<Void> {
     }
 
     @Override
-    public Void execute(Client client) throws ElasticsearchException {
-        client.admin().indices().prepareDelete(indices).execute().actionGet();
-        return null;
+    public CompletableFuture<Void> executeAsync(Client client, Executor executor) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client.admin().indices().prepareDelete(indices).execute(ActionListener.wrap(
+                response -> future.complete(null), future::completeExceptionally));
+        return future;
+    }
+
+    /**
+     * @return the names of the indices
+     */
+    String[] indices() {
+        return indices;
     }
 
     @Override
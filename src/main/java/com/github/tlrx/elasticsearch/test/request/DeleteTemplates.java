@@ -19,24 +19,29 @@
 package com.github.tlrx.elasticsearch.test.request;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
-import com.google.common.collect.Lists;
+import com.github.tlrx.elasticsearch.test.node.NodeRegistry;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.admin.cluster.state.ClusterStateAction;
-import org.elasticsearch.action.admin.cluster.state.ClusterStateRequestBuilder;
-import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateAction;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateRequest;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexTemplateMetaData;
+import org.elasticsearch.common.regex.Regex;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 /**
  * A {@link com.github.tlrx.elasticsearch.test.request.Request} used to delete one, many templates or all templates.
+ * <br/>
+ * Deleting all templates or templates by wildcard keeps the {@value NodeRegistry#DEFAULTS_TEMPLATE} template of the
+ * node, otherwise new indices would silently be created with the Elasticsearch defaults instead of the default index
+ * settings of the node until its next reset.
  */
 public class DeleteTemplates implements Request<Void> {
     /**
@@ -66,23 +71,43 @@ public class DeleteTemplates implements Request<Void> {
     }
 
     /**
-     * Get the names of templates to delete, if no template is provided the complete list of templates is retrieved
+     * Get the names of templates to delete, if no template is provided the complete list of templates is retrieved.
+     * Wildcard names are expanded here so that the {@value NodeRegistry#DEFAULTS_TEMPLATE} template holding the default
+     * index settings of the node is kept, it is only deleted when given by its exact name.
      */
     private Collection<String> getTemplates(Client client) {
-        Collection<String> templatesColl;
-        if (this.templates==null || this.templates.length==0) {
-            // Retrieve all templates
-            ClusterStateRequestBuilder clusterStateRequestBuilder =
-                    ClusterStateAction.INSTANCE.newRequestBuilder(client.admin().cluster())
-                            .all().setMetaData(false);
-            ClusterStateResponse clusterStateResponse = clusterStateRequestBuilder.execute().actionGet();
-            templatesColl = Lists.newArrayList(clusterStateResponse.getState().getMetaData().getTemplates().keysIt());
-        } else {
-            // Use provided templates
-            templatesColl = Arrays.asList(templates);
+        Collection<String> templatesColl = new LinkedHashSet<>();
+        String[] names = (this.templates == null || this.templates.length == 0) ? new String[]{"*"} : this.templates;
+        Collection<String> existing = null;
+        for (String name : names) {
+            if (Regex.isSimpleMatchPattern(name)) {
+                if (existing == null) {
+                    existing = getExistingTemplates(client);
+                }
+                for (String template : existing) {
+                    if (!NodeRegistry.DEFAULTS_TEMPLATE.equals(template) && Regex.simpleMatch(name, template)) {
+                        templatesColl.add(template);
+                    }
+                }
+            } else {
+                // Use provided templates
+                templatesColl.add(name);
+            }
         }
         return templatesColl;
     }
+
+    /**
+     * Retrieve the names of all the templates
+     */
+    private Collection<String> getExistingTemplates(Client client) {
+        Collection<String> existing = new ArrayList<>();
+        for (IndexTemplateMetaData template : client.admin().indices().prepareGetTemplates().get().getIndexTemplates()) {
+            existing.add(template.getName());
+        }
+        return existing;
+    }
+
     @Override
     public Void execute(Client client) throws ElasticsearchException {
         Set<String> unacknowledgedTemplates = new HashSet<String>();
@@ -123,6 +148,13 @@ public class DeleteTemplates implements Request<Void> {
         return currentException;
     }
 
+    /**
+     * @return the names of the templates, empty if all the templates are deleted
+     */
+    String[] templates() {
+        return templates;
+    }
+
     @Override
     public String toString() {
         return "delete templates [" +
@@ -0,0 +1,183 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Request} sending consecutive {@link Index} and {@link Delete} requests in a single bulk request, refreshed
+ * once instead of once per document. All the documents are sent even if some of them fail, the failures are then
+ * reported per request.
+ */
+public class DocumentBulk implements RefreshableRequest<Void> {
+
+    private final List<Request<?>> requests;
+    private RefreshStrategy refreshStrategy;
+
+    public DocumentBulk(List<Request<?>> requests) {
+        for (Request<?> request : requests) {
+            if (!isDocumentRequest(request)) {
+                throw new IllegalArgumentException("Request " + request + " can not be sent in a bulk request");
+            }
+        }
+        this.requests = Collections.unmodifiableList(new ArrayList<>(requests));
+    }
+
+    /**
+     * Replaces each run of at least two consecutive {@link Index} and {@link Delete} requests with the same refresh
+     * strategy by a {@link DocumentBulk} with this strategy, other requests are kept in place
+     *
+     * @param requests the requests to execute one after the other
+     * @return the requests with coalesced document requests
+     */
+    public static List<Request<?>> coalesce(Request<?>... requests) {
+        List<Request<?>> result = new ArrayList<>(requests.length);
+        List<Request<?>> run = new ArrayList<>();
+        for (Request<?> request : requests) {
+            if (isDocumentRequest(request)) {
+                if (!run.isEmpty() && (refreshStrategy(request) != refreshStrategy(run.get(0)))) {
+                    flush(run, result);
+                }
+                run.add(request);
+            } else {
+                flush(run, result);
+                result.add(request);
+            }
+        }
+        flush(run, result);
+        return result;
+    }
+
+    private static void flush(List<Request<?>> run, List<Request<?>> result) {
+        if (run.size() > 1) {
+            result.add(new DocumentBulk(run).withRefreshStrategy(refreshStrategy(run.get(0))));
+        } else {
+            result.addAll(run);
+        }
+        run.clear();
+    }
+
+    private static boolean isDocumentRequest(Request<?> request) {
+        return (request instanceof Index) || (request instanceof Delete);
+    }
+
+    private static RefreshStrategy refreshStrategy(Request<?> request) {
+        return (request instanceof Index) ? ((Index) request).refreshStrategy() : ((Delete) request).refreshStrategy();
+    }
+
+    /**
+     * @param refreshStrategy when the documents become visible to searches, default to the strategy of the
+     *                        {@link com.github.tlrx.elasticsearch.test.EsSetup} executing the request
+     */
+    public DocumentBulk withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        this.refreshStrategy = refreshStrategy;
+        return this;
+    }
+
+    /**
+     * @return the coalesced requests
+     */
+    public List<Request<?>> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    @Override
+    public RefreshStrategy refreshStrategy() {
+        return refreshStrategy;
+    }
+
+    @Override
+    public Set<String> writtenIndices() {
+        Set<String> indices = new LinkedHashSet<>();
+        for (Request<?> request : requests) {
+            indices.add((request instanceof Index) ? ((Index) request).index() : ((Delete) request).index());
+        }
+        return indices;
+    }
+
+    @Override
+    public CompletableFuture<Void> executeAsync(Client client, Executor executor) {
+        return send(client, RefreshStrategy.outsideBatch(refreshStrategy));
+    }
+
+    /**
+     * Sends the bulk request, refreshed according to the given strategy
+     */
+    @Override
+    public CompletableFuture<Void> send(Client client, RefreshStrategy strategy) {
+        BulkRequest bulk = new BulkRequest().setRefreshPolicy(strategy.policy());
+        for (Request<?> request : requests) {
+            // Items of a bulk request can not have their own refresh policy
+            DocWriteRequest<?> item = (request instanceof Index) ? ((Index) request).request() : ((Delete) request).request();
+            ((WriteRequest<?>) item).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+            bulk.add(item);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client.bulk(bulk, ActionListener.wrap(
+                response -> {
+                    if (response.hasFailures()) {
+                        future.completeExceptionally(failures(response));
+                    } else {
+                        future.complete(null);
+                    }
+                },
+                e -> future.completeExceptionally(new EsSetupRuntimeException(e))));
+        return future;
+    }
+
+    /**
+     * @return the failures of the bulk request, reported per request
+     */
+    private EsSetupRuntimeException failures(BulkResponse response) {
+        StringBuilder failures = new StringBuilder("Bulk request has failures:");
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                failures.append("\n").append(requests.get(item.getItemId()))
+                        .append(": ").append(item.getFailureMessage());
+            }
+        }
+        return new EsSetupRuntimeException(failures.toString());
+    }
+
+    @Override
+    public String toString() {
+        return "document bulk [" +
+                "requests=" + requests.size() +
+                ']';
+    }
+}
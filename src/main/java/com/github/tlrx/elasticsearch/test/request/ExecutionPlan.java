@@ -0,0 +1,479 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Executes a batch of requests concurrently, each request waiting only for the requests it depends on.
+ * <br/>
+ * Dependencies are computed from the type and the targets of the requests: deleting indices and templates, creating
+ * templates, creating indices, writing documents and reading indices depend on each other when they target the same
+ * indices or templates, or when a template matches an index created explicitly or by a document write. A request
+ * always depends on the earlier requests of the batch it conflicts with, so that the batch has the same effect as when
+ * its requests are executed one after the other. Requests whose targets are unknown, such as a {@link CreateIndex}
+ * with data or a custom request, wait for all the earlier requests and are waited for by all the later ones.
+ * <br/>
+ * Once executed, the plan reports its critical path: the chain of dependent requests which took the longest time.
+ */
+public class ExecutionPlan {
+
+    private final static Logger LOGGER = Logger.getLogger(ExecutionPlan.class.getName());
+
+    private final Request<?>[] requests;
+    private final List<List<Integer>> dependencies = new ArrayList<>();
+    private final List<List<Integer>> dependents = new ArrayList<>();
+    private final boolean planned;
+
+    private final long[] starts;
+    private final long[] ends;
+    private long startTime;
+    private long endTime;
+
+    private ExecutionPlan(Request<?>[] requests, boolean planned) {
+        this.requests = requests;
+        this.planned = planned;
+        this.starts = new long[requests.length];
+        this.ends = new long[requests.length];
+
+        Target[] targets = new Target[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            Preconditions.checkNotNull(requests[i], "Request must not be null");
+            targets[i] = planned ? Target.of(requests[i]) : null;
+            dependencies.add(new ArrayList<>());
+            dependents.add(new ArrayList<>());
+        }
+        if (planned) {
+            for (int j = 0; j < requests.length; j++) {
+                for (int i = 0; i < j; i++) {
+                    if (targets[i].conflicts(targets[j])) {
+                        dependencies.get(j).add(i);
+                        dependents.get(i).add(j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param requests the requests of the batch, in the order they would be executed one after the other
+     * @return a plan executing each request once the earlier requests it depends on are executed
+     */
+    public static ExecutionPlan of(Request<?>... requests) {
+        return new ExecutionPlan(requests, true);
+    }
+
+    /**
+     * @param requests independent requests
+     * @return a plan executing all the requests concurrently
+     */
+    public static ExecutionPlan independent(Request<?>... requests) {
+        return new ExecutionPlan(requests, false);
+    }
+
+    /**
+     * @return the requests the given request waits for
+     */
+    public List<Request<?>> getDependencies(Request<?> request) {
+        List<Request<?>> result = new ArrayList<>();
+        for (int i : dependencies.get(indexOf(request))) {
+            result.add(requests[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Executes the requests, with at most the given number of requests in flight. Requests are started in the order of
+     * the batch once their dependencies are executed. No request is started after a request fails, the future then
+     * fails once the requests in flight complete. The requests which do not select their own {@link RefreshStrategy}
+     * are refreshed immediately.
+     *
+     * @param client                the client used to execute the requests
+     * @param executor              the executor running blocking requests, see
+     *                              {@link AsyncRequest#executeAsync(Request, Client, Executor)}
+     * @param maxConcurrentRequests the maximum number of requests in flight
+     * @return a future completed once all the requests are executed
+     */
+    public CompletableFuture<ExecutionPlan> execute(Client client, Executor executor, int maxConcurrentRequests) {
+        return execute(new RefreshBatch(client, RefreshStrategy.IMMEDIATE), executor, maxConcurrentRequests);
+    }
+
+    /**
+     * Executes the requests in a batch, with at most the given number of requests in flight, see
+     * {@link #execute(Client, Executor, int)}. The indices written with {@link RefreshStrategy#DEFERRED} are refreshed
+     * once all the requests are executed, even if a request failed.
+     *
+     * @param batch                 the batch executing the requests with its default {@link RefreshStrategy}
+     * @param executor              the executor running blocking requests, see
+     *                              {@link RefreshBatch#executeAsync(Request, Executor)}
+     * @param maxConcurrentRequests the maximum number of requests in flight
+     * @return a future completed once all the requests are executed and the batch is refreshed
+     */
+    public CompletableFuture<ExecutionPlan> execute(RefreshBatch batch, Executor executor, int maxConcurrentRequests) {
+        Preconditions.checkArgument(maxConcurrentRequests > 0, "Maximum number of concurrent requests must be positive");
+        synchronized (this) {
+            Preconditions.checkState(startTime == 0, "Execution plan already executed");
+            startTime = System.nanoTime();
+        }
+        return new Execution(batch, executor, maxConcurrentRequests).start();
+    }
+
+    /**
+     * @return the chain of dependent requests which took the longest time, empty if the plan is not executed
+     */
+    public synchronized List<Request<?>> getCriticalPath() {
+        if (endTime == 0) {
+            return Collections.emptyList();
+        }
+        // Requests only depend on earlier requests: the order of the batch is a topological order
+        long[] finish = new long[requests.length];
+        int[] previous = new int[requests.length];
+        int last = -1;
+        for (int j = 0; j < requests.length; j++) {
+            previous[j] = -1;
+            for (int i : dependencies.get(j)) {
+                if ((previous[j] < 0) || (finish[i] > finish[previous[j]])) {
+                    previous[j] = i;
+                }
+            }
+            finish[j] = ((previous[j] < 0) ? 0 : finish[previous[j]]) + (ends[j] - starts[j]);
+            if ((last < 0) || (finish[j] > finish[last])) {
+                last = j;
+            }
+        }
+        List<Request<?>> path = new ArrayList<>();
+        for (int i = last; i >= 0; i = previous[i]) {
+            path.add(requests[i]);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * @return the sum of the execution times of the requests of the critical path
+     */
+    public synchronized TimeValue getCriticalPathTime() {
+        long nanos = 0;
+        for (Request<?> request : getCriticalPath()) {
+            int i = indexOf(request);
+            nanos += ends[i] - starts[i];
+        }
+        return TimeValue.timeValueNanos(nanos);
+    }
+
+    /**
+     * @return the time of the execution of the plan
+     */
+    public synchronized TimeValue getTime() {
+        return TimeValue.timeValueNanos((endTime == 0) ? 0 : endTime - startTime);
+    }
+
+    private int indexOf(Request<?> request) {
+        for (int i = 0; i < requests.length; i++) {
+            if (requests[i] == request) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Request " + request + " is not part of the plan");
+    }
+
+    private synchronized void executed(int request, long start, long end) {
+        starts[request] = start;
+        ends[request] = end;
+    }
+
+    private synchronized void finished() {
+        endTime = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("execution plan [");
+        for (int j = 0; j < requests.length; j++) {
+            builder.append(j > 0 ? ", " : "").append(j).append(": ").append(requests[j]);
+            if (!dependencies.get(j).isEmpty()) {
+                builder.append(" after ").append(dependencies.get(j));
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Starts each request once its dependencies completed, until the maximum number of requests in flight is reached
+     */
+    private final class Execution {
+
+        private final RefreshBatch batch;
+        private final Executor executor;
+        private final int maxConcurrentRequests;
+        private final CompletableFuture<ExecutionPlan> result = new CompletableFuture<>();
+
+        private final int[] pending = new int[requests.length];
+        private final PriorityQueue<Integer> ready = new PriorityQueue<>();
+        private int inFlight = 0;
+        private EsSetupRuntimeException failure;
+        private boolean done = false;
+
+        Execution(RefreshBatch batch, Executor executor, int maxConcurrentRequests) {
+            this.batch = batch;
+            this.executor = executor;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            for (int i = 0; i < requests.length; i++) {
+                pending[i] = dependencies.get(i).size();
+                if (pending[i] == 0) {
+                    ready.add(i);
+                }
+            }
+        }
+
+        CompletableFuture<ExecutionPlan> start() {
+            dispatch();
+            return result;
+        }
+
+        private void dispatch() {
+            while (true) {
+                final int request;
+                synchronized (this) {
+                    if ((failure == null) && !ready.isEmpty() && (inFlight < maxConcurrentRequests)) {
+                        request = ready.poll();
+                        inFlight++;
+                    } else {
+                        if ((inFlight > 0) || done) {
+                            return;
+                        }
+                        done = true;
+                        break;
+                    }
+                }
+                final long start = System.nanoTime();
+                CompletableFuture<?> future;
+                try {
+                    future = batch.executeAsync(requests[request], executor);
+                } catch (RuntimeException e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                future.whenComplete((response, e) -> completed(request, start, e));
+            }
+
+            // All the requests completed, no other thread updates the failure anymore
+            finished();
+
+            // Documents written before a failure are visible too
+            CompletableFuture<Void> refreshed;
+            try {
+                refreshed = batch.refreshAsync();
+            } catch (RuntimeException e) {
+                refreshed = new CompletableFuture<>();
+                refreshed.completeExceptionally(e);
+            }
+            refreshed.whenComplete((response, e) -> complete(e));
+        }
+
+        private void complete(Throwable refreshFailure) {
+            if (refreshFailure != null) {
+                Throwable cause = (refreshFailure instanceof CompletionException) && (refreshFailure.getCause() != null)
+                        ? refreshFailure.getCause() : refreshFailure;
+                if (failure != null) {
+                    failure.addSuppressed(cause);
+                } else {
+                    failure = new EsSetupRuntimeException("Exception when refreshing the batch", cause);
+                }
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                if (planned) {
+                    LOGGER.info(requests.length + " requests executed in " + getTime() + ", critical path "
+                            + getCriticalPathTime() + ": " + getCriticalPath());
+                }
+                result.complete(ExecutionPlan.this);
+            }
+        }
+
+        private void completed(int request, long start, Throwable e) {
+            executed(request, start, System.nanoTime());
+            synchronized (this) {
+                inFlight--;
+                if (e != null) {
+                    if (failure == null) {
+                        Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+                        failure = new EsSetupRuntimeException("Exception when executing request " + requests[request], cause);
+                    }
+                } else {
+                    for (int dependent : dependents.get(request)) {
+                        if (--pending[dependent] == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * What a request does and the indices or templates it targets
+     */
+    private static final class Target {
+
+        enum Kind {
+            DELETE_INDICES, DELETE_TEMPLATES, CREATE_TEMPLATE, CREATE_INDEX, WRITE_DOCUMENT, WRITE_INDEX, READ, UNKNOWN
+        }
+
+        private final Kind kind;
+        /**
+         * Names or patterns of the targeted indices or templates, null for all
+         */
+        private final List<String> names;
+        private final List<String> patterns;
+        private final String id;
+
+        private Target(Kind kind, String[] names, List<String> patterns, String id) {
+            this.kind = kind;
+            this.names = isAll(names) ? null : Arrays.asList(names);
+            this.patterns = patterns;
+            this.id = id;
+        }
+
+        static Target of(Request<?> request) {
+            if (request instanceof DeleteIndices) {
+                return new Target(Kind.DELETE_INDICES, ((DeleteIndices) request).indices(), null, null);
+            } else if (request instanceof DeleteTemplates) {
+                return new Target(Kind.DELETE_TEMPLATES, ((DeleteTemplates) request).templates(), null, null);
+            } else if (request instanceof CreateTemplate) {
+                CreateTemplate template = (CreateTemplate) request;
+                return new Target(Kind.CREATE_TEMPLATE, new String[]{template.name()}, template.patterns(), null);
+            } else if ((request instanceof CreateIndex) && !((CreateIndex) request).hasData()) {
+                return new Target(Kind.CREATE_INDEX, new String[]{((CreateIndex) request).index()}, null, null);
+            } else if (request instanceof Index) {
+                return new Target(Kind.WRITE_DOCUMENT, new String[]{((Index) request).index()}, null, ((Index) request).id());
+            } else if (request instanceof Delete) {
+                return new Target(Kind.WRITE_DOCUMENT, new String[]{((Delete) request).index()}, null, ((Delete) request).id());
+            } else if (request instanceof ForceMerge) {
+                return new Target(Kind.WRITE_INDEX, ((ForceMerge) request).indices(), null, null);
+            } else if (request instanceof Count) {
+                return new Target(Kind.READ, ((Count) request).indices(), null, null);
+            } else if (request instanceof Exists) {
+                return new Target(Kind.READ, new String[]{((Exists) request).index()}, null, null);
+            } else if (request instanceof ExistsAll) {
+                return new Target(Kind.READ, new String[]{((ExistsAll) request).index()}, null, null);
+            }
+            return new Target(Kind.UNKNOWN, null, null, null);
+        }
+
+        /**
+         * @return true if this target, of an earlier request, conflicts with the target of a later request
+         */
+        boolean conflicts(Target later) {
+            if ((kind == Kind.UNKNOWN) || (later.kind == Kind.UNKNOWN)) {
+                return true;
+            }
+            if ((kind == Kind.DELETE_TEMPLATES) || (later.kind == Kind.DELETE_TEMPLATES)) {
+                Target other = (kind == Kind.DELETE_TEMPLATES) ? later : this;
+                switch (other.kind) {
+                    case DELETE_TEMPLATES:
+                    case CREATE_TEMPLATE:
+                        return overlap(names, later.names);
+                    case CREATE_INDEX:
+                    case WRITE_DOCUMENT:
+                        // Patterns of deleted templates are unknown
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+            if ((kind == Kind.CREATE_TEMPLATE) || (later.kind == Kind.CREATE_TEMPLATE)) {
+                Target template = (kind == Kind.CREATE_TEMPLATE) ? this : later;
+                Target other = (kind == Kind.CREATE_TEMPLATE) ? later : this;
+                switch (other.kind) {
+                    case CREATE_TEMPLATE:
+                        return overlap(names, later.names);
+                    case CREATE_INDEX:
+                    case WRITE_DOCUMENT:
+                        // Document writes create missing indices
+                        return (template.patterns == null) || template.patterns.isEmpty()
+                                || overlap(template.patterns, other.names);
+                    default:
+                        return false;
+                }
+            }
+            if ((kind == Kind.READ) && (later.kind == Kind.READ)) {
+                return false;
+            }
+            if (!overlap(names, later.names)) {
+                return false;
+            }
+            if ((kind == Kind.WRITE_DOCUMENT) && (later.kind == Kind.WRITE_DOCUMENT)) {
+                // Documents with generated ids never conflict
+                return (id != null) && Objects.equals(id, later.id);
+            }
+            return true;
+        }
+
+        private static boolean isAll(String[] names) {
+            if ((names == null) || (names.length == 0)) {
+                return true;
+            }
+            for (String name : names) {
+                if ("_all".equals(name) || "*".equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if names or patterns may designate the same index or template, null meaning all
+         */
+        private static boolean overlap(List<String> left, List<String> right) {
+            if ((left == null) || (right == null)) {
+                return true;
+            }
+            for (String l : left) {
+                for (String r : right) {
+                    if (Regex.isSimpleMatchPattern(l) && Regex.isSimpleMatchPattern(r)) {
+                        // Two patterns may match the same name
+                        return true;
+                    }
+                    if (Regex.simpleMatch(l, r) || Regex.simpleMatch(r, l)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
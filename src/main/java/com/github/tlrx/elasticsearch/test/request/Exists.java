@@ -18,19 +18,23 @@
  */
 package com.github.tlrx.elasticsearch.test.request;
 
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
-import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * A {@link Request} used to check if a document or index exists.
  */
-public class Exists implements Request<Boolean> {
+public class Exists implements RefreshableRequest<Boolean> {
 
     private String index;
     private String type;
     private String id;
+    private RefreshStrategy refreshStrategy;
 
     public Exists(String index) {
         this.index = index;
@@ -42,20 +46,67 @@ public class Exists implements Request<Boolean> {
         this.id = id;
     }
 
+    /**
+     * @param refreshStrategy the shards are refreshed before a document is read with {@link RefreshStrategy#IMMEDIATE},
+     *                        documents are read in real time without refresh with the other strategies. Default to the
+     *                        strategy of the {@link com.github.tlrx.elasticsearch.test.EsSetup} executing the request
+     */
+    public Exists withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        this.refreshStrategy = refreshStrategy;
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(Client client, Executor executor) {
+        return send(client, RefreshStrategy.outsideBatch(refreshStrategy));
+    }
+
+    /**
+     * Sends the request, the shards are refreshed before a document is read with {@link RefreshStrategy#IMMEDIATE}
+     */
     @Override
-    public Boolean execute(Client client) throws ElasticsearchException {
-        if ((index != null) && (type != null) && (id != null)) {
+    public CompletableFuture<Boolean> send(Client client, RefreshStrategy strategy) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (isDocument()) {
 
             // Check if a document exists
-            GetResponse response = client.prepareGet(index, type, id).setRefresh(true).execute().actionGet();
-            return response.isExists();
+            client.prepareGet(index, type, id).setRefresh(strategy == RefreshStrategy.IMMEDIATE).execute(ActionListener.wrap(
+                    response -> future.complete(response.isExists()), future::completeExceptionally));
 
         } else {
 
             // Check if index exists
-            IndicesExistsResponse response = client.admin().indices().prepareExists(index).execute().actionGet();
-            return response.isExists();
+            client.admin().indices().prepareExists(index).execute(ActionListener.wrap(
+                    response -> future.complete(response.isExists()), future::completeExceptionally));
         }
+        return future;
+    }
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    @Override
+    public RefreshStrategy refreshStrategy() {
+        return refreshStrategy;
+    }
+
+    @Override
+    public Collection<String> writtenIndices() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return true if the request reads a document, false if it checks that an index exists
+     */
+    boolean isDocument() {
+        return (index != null) && (type != null) && (id != null);
+    }
+
+    /**
+     * @return the name of the index
+     */
+    String index() {
+        return index;
     }
 
     @Override
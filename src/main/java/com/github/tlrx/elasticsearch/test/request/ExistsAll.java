@@ -0,0 +1,170 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Request} used to check which documents of a list exist. Documents are read in real time by multi-get
+ * requests of at most {@value #DEFAULT_CHUNK_SIZE} ids, without their source, so that checking hundreds of documents
+ * costs a few requests instead of one request per document.
+ * <br/>
+ * Returns the ids of the documents that exist, in the order of the given ids:
+ * <pre>
+ * assertEquals(new HashSet&lt;&gt;(Arrays.asList("1", "2")), new ExistsAll("index", "type", "1", "2", "3").execute(client));
+ * </pre>
+ */
+public class ExistsAll implements RefreshableRequest<Set<String>> {
+
+    /**
+     * Default maximum number of ids per multi-get request
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final String index;
+    private final String type;
+    private final List<String> ids;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private RefreshStrategy refreshStrategy;
+
+    public ExistsAll(String index, String type, String... ids) {
+        this(index, type, Arrays.asList(ids));
+    }
+
+    public ExistsAll(String index, String type, List<String> ids) {
+        Preconditions.checkNotNull(index, "No index specified");
+        Preconditions.checkNotNull(type, "No type specified");
+        Preconditions.checkNotNull(ids, "No ids specified");
+        this.index = index;
+        this.type = type;
+        this.ids = ids;
+    }
+
+    /**
+     * @param chunkSize the maximum number of ids per multi-get request, default to {@value #DEFAULT_CHUNK_SIZE}
+     */
+    public ExistsAll withChunkSize(int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param refreshStrategy the shards are refreshed once before the documents are read with
+     *                        {@link RefreshStrategy#IMMEDIATE}, documents are read in real time without refresh with
+     *                        the other strategies. Default to the strategy of the
+     *                        {@link com.github.tlrx.elasticsearch.test.EsSetup} executing the request
+     */
+    public ExistsAll withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        this.refreshStrategy = refreshStrategy;
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> executeAsync(Client client, Executor executor) {
+        return send(client, RefreshStrategy.outsideBatch(refreshStrategy));
+    }
+
+    /**
+     * Sends the multi-get requests one after the other, the shards are refreshed by the first one with
+     * {@link RefreshStrategy#IMMEDIATE}
+     */
+    @Override
+    public CompletableFuture<Set<String>> send(Client client, RefreshStrategy strategy) {
+        CompletableFuture<Set<String>> future = new CompletableFuture<>();
+        Set<String> existing = new LinkedHashSet<>();
+        sendChunk(client, 0, strategy == RefreshStrategy.IMMEDIATE, existing, future);
+        return future;
+    }
+
+    private void sendChunk(Client client, int from, boolean refresh, Set<String> existing,
+                           CompletableFuture<Set<String>> future) {
+        if (from >= ids.size()) {
+            future.complete(Collections.unmodifiableSet(existing));
+            return;
+        }
+        MultiGetRequest request = new MultiGetRequest().realtime(true).refresh(refresh);
+        for (String id : ids.subList(from, Math.min(from + chunkSize, ids.size()))) {
+            request.add(new MultiGetRequest.Item(index, type, id).fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE));
+        }
+        client.multiGet(request, ActionListener.wrap(
+                response -> {
+                    collect(response, existing);
+                    sendChunk(client, from + chunkSize, false, existing, future);
+                },
+                future::completeExceptionally));
+    }
+
+    private void collect(MultiGetResponse response, Set<String> existing) {
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (item.isFailed()) {
+                throw new EsSetupRuntimeException("Exception when reading document [" + item.getId() + "]",
+                        item.getFailure().getFailure());
+            }
+            if (item.getResponse().isExists()) {
+                existing.add(item.getId());
+            }
+        }
+    }
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    @Override
+    public RefreshStrategy refreshStrategy() {
+        return refreshStrategy;
+    }
+
+    @Override
+    public Collection<String> writtenIndices() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return the name of the index
+     */
+    String index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "exists all [" +
+                "index='" + index + '\'' +
+                ", type='" + type + '\'' +
+                ", ids=" + ids.size() +
+                ']';
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.google.common.base.Preconditions;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.stats.CommonStats;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Request} used to force-merge indices down to a maximum number of segments, so that tests run against the
+ * same segment layout whatever the timing of the merges while the data was loaded. Returns the resulting number of
+ * segments and size of the indices.
+ */
+public class ForceMerge implements Request<ForceMerge.Segments> {
+
+    private final static Logger LOGGER = Logger.getLogger(ForceMerge.class.getName());
+
+    private static final TimeValue MERGES_TIMEOUT = TimeValue.timeValueMinutes(1);
+    private static final long MERGES_POLL_MILLIS = 50;
+
+    private final String[] indices;
+    private int maxSegments = 1;
+    private boolean waitForMerges = true;
+
+    public ForceMerge(String... indices) {
+        Preconditions.checkArgument((indices != null) && (indices.length > 0), "No index specified");
+        this.indices = indices;
+    }
+
+    /**
+     * @param maxSegments the maximum number of segments per shard, default to 1
+     */
+    public ForceMerge withMaxSegments(int maxSegments) {
+        Preconditions.checkArgument(maxSegments > 0, "Maximum number of segments must be positive");
+        this.maxSegments = maxSegments;
+        return this;
+    }
+
+    /**
+     * @param waitForMerges true to also wait for the merges running in the background once the indices are merged,
+     *                      default to true
+     */
+    public ForceMerge withWaitForMerges(boolean waitForMerges) {
+        this.waitForMerges = waitForMerges;
+        return this;
+    }
+
+    @Override
+    public Segments execute(Client client) throws ElasticsearchException {
+        long start = System.nanoTime();
+        client.admin().indices().prepareForceMerge(indices)
+                .setMaxNumSegments(maxSegments)
+                .setFlush(true)
+                .get();
+        if (waitForMerges) {
+            awaitMerges(client);
+        }
+        // Searchers see the merged segments once refreshed
+        client.admin().indices().prepareRefresh(indices).get();
+
+        CommonStats stats = client.admin().indices().prepareStats(indices)
+                .clear()
+                .setSegments(true)
+                .setStore(true)
+                .get()
+                .getTotal();
+        Segments segments = new Segments(stats.getSegments().getCount(), stats.getStore().getSize());
+        LOGGER.info("Indices " + Arrays.asList(indices) + " force merged in "
+                + TimeValue.timeValueNanos(System.nanoTime() - start) + ": " + segments);
+        return segments;
+    }
+
+    private void awaitMerges(Client client) {
+        long deadline = System.nanoTime() + MERGES_TIMEOUT.nanos();
+        while (client.admin().indices().prepareStats(indices).clear().setMerge(true).get()
+                .getTotal().getMerge().getCurrent() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new EsSetupRuntimeException("Merges of " + Arrays.asList(indices) + " not completed after " + MERGES_TIMEOUT);
+            }
+            try {
+                Thread.sleep(MERGES_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EsSetupRuntimeException("Interrupted while waiting for merges", e);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the indices
+     */
+    String[] indices() {
+        return indices;
+    }
+
+    @Override
+    public String toString() {
+        return "force merge [" +
+                "indices=" + Arrays.asList(indices) +
+                ", maxSegments=" + maxSegments +
+                ", waitForMerges=" + waitForMerges +
+                ']';
+    }
+
+    /**
+     * Segments of the merged indices, primaries and replicas
+     */
+    public static class Segments {
+
+        private final long count;
+        private final ByteSizeValue size;
+
+        Segments(long count, ByteSizeValue size) {
+            this.count = count;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of segments
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the size of the indices on disk
+         */
+        public ByteSizeValue getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return count + " segments, " + size;
+        }
+    }
+}
@@ -20,22 +20,27 @@ package com.github.tlrx.elasticsearch.test.request;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
-import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentType;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * A {@link com.github.tlrx.elasticsearch.test.request.Request} used to index documents.
  */
-public class Index implements Request<Void> {
+public class Index implements RefreshableRequest<Void> {
 
     private final IndexRequest request;
+    private RefreshStrategy refreshStrategy;
 
     public Index(String index, String type) {
-        request = new IndexRequest(index, type).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        request = new IndexRequest(index, type);
     }
 
     public Index(String index, String type, String id) {
@@ -49,18 +54,77 @@ public class Index implements Request<Void> {
     }
 
     public Index withSource(JSONProvider jsonProvider) {
-        request.source(jsonProvider.toJson());
+        return withSource(jsonProvider, XContentType.JSON);
+    }
+
+    /**
+     * @param jsonProvider the source of the document, encoded in the given format
+     * @param contentType  the format of the source, such as {@link XContentType#SMILE} or {@link XContentType#CBOR}
+     */
+    public Index withSource(JSONProvider jsonProvider, XContentType contentType) {
+        request.source(jsonProvider.toBytes(), contentType);
+        return this;
+    }
+
+    /**
+     * @param refreshStrategy when the document becomes visible to searches, default to the strategy of the
+     *                        {@link com.github.tlrx.elasticsearch.test.EsSetup} executing the request
+     */
+    public Index withRefreshStrategy(RefreshStrategy refreshStrategy) {
+        this.refreshStrategy = refreshStrategy;
         return this;
     }
 
     @Override
-    public Void execute(final Client client) throws ElasticsearchException {
-        try {
-            IndexResponse response = client.index(request).get();
-        } catch (Exception e) {
-            throw new EsSetupRuntimeException(e);
-        }
-        return null;
+    public CompletableFuture<Void> executeAsync(final Client client, Executor executor) {
+        return send(client, RefreshStrategy.outsideBatch(refreshStrategy));
+    }
+
+    /**
+     * Sends the request, refreshed according to the given strategy
+     */
+    @Override
+    public CompletableFuture<Void> send(final Client client, RefreshStrategy strategy) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        request.setRefreshPolicy(strategy.policy());
+        client.index(request, ActionListener.wrap(
+                response -> future.complete(null),
+                e -> future.completeExceptionally(new EsSetupRuntimeException(e))));
+        return future;
+    }
+
+    /**
+     * @return the request of the document, sent in a bulk request by {@link DocumentBulk}
+     */
+    IndexRequest request() {
+        return request;
+    }
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    @Override
+    public RefreshStrategy refreshStrategy() {
+        return refreshStrategy;
+    }
+
+    @Override
+    public Collection<String> writtenIndices() {
+        return Collections.singleton(index());
+    }
+
+    /**
+     * @return the name of the index of the document
+     */
+    String index() {
+        return request.index();
+    }
+
+    /**
+     * @return the id of the document, null if generated
+     */
+    String id() {
+        return request.id();
     }
 
     @Override
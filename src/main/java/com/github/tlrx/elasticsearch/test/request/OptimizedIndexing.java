@@ -0,0 +1,147 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequestBuilder;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Applies settings that favor indexing over search to the indices receiving bulk data: no periodic refresh, asynchronous
+ * translog and no replica. The original settings are restored once the data is loaded, then the replicas are
+ * recovered at once from the loaded primaries instead of indexing every document twice.
+ */
+class OptimizedIndexing {
+
+    private final static Logger LOGGER = Logger.getLogger(OptimizedIndexing.class.getName());
+
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String TRANSLOG_DURABILITY = "index.translog.durability";
+    static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put(REFRESH_INTERVAL, "-1")
+            .put(TRANSLOG_DURABILITY, "async")
+            .put(NUMBER_OF_REPLICAS, 0)
+            .build();
+
+    private static final TimeValue REPLICAS_TIMEOUT = TimeValue.timeValueMinutes(1);
+
+    private final Client client;
+
+    /**
+     * The names seen in bulk requests, and the original settings of the concrete indices they resolve to
+     */
+    private final Set<String> names = new HashSet<>();
+    private final Map<String, Settings> originals = new LinkedHashMap<>();
+    private long applyNanos = 0;
+
+    OptimizedIndexing(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Applies the indexing settings to the indices of a bulk request which were not seen before
+     */
+    synchronized void apply(BulkRequest request) {
+        long start = System.nanoTime();
+        for (DocWriteRequest<?> action : request.requests()) {
+            if ((action.index() != null) && names.add(action.index())) {
+                GetSettingsResponse response = client.admin().indices().prepareGetSettings(action.index())
+                        .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                        .get();
+                for (ObjectObjectCursor<String, Settings> index : response.getIndexToSettings()) {
+                    if (!originals.containsKey(index.key)) {
+                        originals.put(index.key, index.value.filter(SETTINGS.keySet()::contains));
+                        client.admin().indices().prepareUpdateSettings(index.key).setSettings(SETTINGS).get();
+                    }
+                }
+            }
+        }
+        applyNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Restores the original settings, unset settings are reset to their default value
+     */
+    synchronized void restore() {
+        if (originals.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (Map.Entry<String, Settings> original : originals.entrySet()) {
+            Settings.Builder settings = Settings.builder();
+            for (String key : SETTINGS.keySet()) {
+                String value = original.getValue().get(key);
+                if (value != null) {
+                    settings.put(key, value);
+                } else {
+                    settings.putNull(key);
+                }
+            }
+            client.admin().indices().prepareUpdateSettings(original.getKey()).setSettings(settings).get();
+        }
+        LOGGER.info("Indexing settings applied to " + originals.keySet() + " in " + TimeValue.timeValueNanos(applyNanos)
+                + ", original settings restored in " + TimeValue.timeValueNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Waits for the replicas of the restored indices: green health if the cluster has enough data nodes to allocate
+     * them, yellow health otherwise
+     */
+    synchronized void awaitReplicas() {
+        if (originals.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        String[] indices = originals.keySet().toArray(new String[originals.size()]);
+        int dataNodes = client.admin().cluster().prepareHealth().get().getNumberOfDataNodes();
+        int replicas = 0;
+        for (String index : indices) {
+            replicas = Math.max(replicas, originals.get(index).getAsInt(NUMBER_OF_REPLICAS, 1));
+        }
+
+        ClusterHealthRequestBuilder health = client.admin().cluster().prepareHealth(indices).setTimeout(REPLICAS_TIMEOUT);
+        if (replicas < dataNodes) {
+            health.setWaitForGreenStatus();
+        } else {
+            health.setWaitForYellowStatus();
+        }
+        ClusterHealthResponse response = health.get();
+        if (response.isTimedOut()) {
+            throw new EsSetupRuntimeException("Replicas of " + originals.keySet() + " not allocated after "
+                    + REPLICAS_TIMEOUT + ": status " + response.getStatus());
+        }
+        LOGGER.info("Replicas of " + originals.keySet() + " recovered in " + TimeValue.timeValueNanos(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.regex.Regex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes the requests of a batch with a default {@link RefreshStrategy}, used by requests which do not select their
+ * own strategy.
+ * <br/>
+ * The indices written with {@link RefreshStrategy#DEFERRED} are collected and refreshed at once by {@link #refresh()}
+ * at the end of the batch, or before a request which may search them, such as a {@link Count}. Requests can be
+ * executed concurrently with {@link #executeAsync(Request, Executor)}.
+ */
+public class RefreshBatch {
+
+    private final Client client;
+    private final RefreshStrategy defaultStrategy;
+    private final Set<String> dirtyIndices = new LinkedHashSet<>();
+
+    /**
+     * Completed once the refreshes sent so far completed, whether they failed or not
+     */
+    private CompletableFuture<Void> refreshing = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param client          the client used to execute the requests
+     * @param defaultStrategy the strategy of the requests which do not select one
+     */
+    public RefreshBatch(Client client, RefreshStrategy defaultStrategy) {
+        this.client = client;
+        this.defaultStrategy = (defaultStrategy != null) ? defaultStrategy : RefreshStrategy.IMMEDIATE;
+    }
+
+    /**
+     * Executes a request of the batch
+     *
+     * @param request the request to execute
+     * @return the result of the request
+     */
+    public <T> T execute(Request<T> request) {
+        if (request instanceof RefreshableRequest) {
+            return AsyncRequest.await(send((RefreshableRequest<T>) request));
+        }
+        if (prepare(request)) {
+            refresh();
+        }
+        return request.execute(client);
+    }
+
+    /**
+     * Executes a request of the batch without blocking, see {@link AsyncRequest#executeAsync(Request, Client, Executor)}
+     *
+     * @param request  the request to execute
+     * @param executor the executor running blocking requests
+     * @return the future result of the request
+     */
+    public <T> CompletableFuture<T> executeAsync(Request<T> request, Executor executor) {
+        if (request instanceof RefreshableRequest) {
+            return send((RefreshableRequest<T>) request);
+        }
+        if (prepare(request)) {
+            return refreshAsync().thenCompose(refreshed -> AsyncRequest.executeAsync(request, client, executor));
+        }
+        return AsyncRequest.executeAsync(request, client, executor);
+    }
+
+    /**
+     * Refreshes the indices written with {@link RefreshStrategy#DEFERRED} since the last refresh
+     */
+    public void refresh() {
+        AsyncRequest.await(refreshAsync());
+    }
+
+    /**
+     * Refreshes the indices written with {@link RefreshStrategy#DEFERRED} since the last refresh without blocking
+     *
+     * @return a future completed once the indices, and the indices of the refreshes in flight, are refreshed
+     */
+    public CompletableFuture<Void> refreshAsync() {
+        String[] indices;
+        synchronized (dirtyIndices) {
+            if (dirtyIndices.isEmpty()) {
+                return refreshing;
+            }
+            indices = dirtyIndices.toArray(new String[dirtyIndices.size()]);
+            dirtyIndices.clear();
+        }
+
+        CompletableFuture<Void> refreshed = new CompletableFuture<>();
+        client.admin().indices().prepareRefresh(indices)
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .execute(ActionListener.wrap(
+                        response -> refreshed.complete(null),
+                        e -> refreshed.completeExceptionally(new EsSetupRuntimeException(
+                                "Exception when refreshing indices " + String.join(", ", indices), e))));
+
+        synchronized (dirtyIndices) {
+            CompletableFuture<Void> result = CompletableFuture.allOf(refreshing, refreshed);
+            refreshing = result.handle((response, e) -> null);
+            return result;
+        }
+    }
+
+    /**
+     * @return the indices to refresh at the end of the batch
+     */
+    Set<String> dirtyIndices() {
+        synchronized (dirtyIndices) {
+            return Collections.unmodifiableSet(new LinkedHashSet<>(dirtyIndices));
+        }
+    }
+
+    /**
+     * Sends a request with the strategy of the batch if it selects none, the indices it writes are refreshed later
+     * with {@link RefreshStrategy#DEFERRED}, even if it fails as a bulk request with failures writes some documents
+     */
+    private <T> CompletableFuture<T> send(RefreshableRequest<T> request) {
+        RefreshStrategy strategy = (request.refreshStrategy() != null) ? request.refreshStrategy() : defaultStrategy;
+        return request.send(client, strategy).whenComplete((response, e) -> written(strategy, request.writtenIndices()));
+    }
+
+    /**
+     * Forgets the deleted indices, which can not be refreshed anymore
+     *
+     * @return true if the request may search the dirty indices, which must be refreshed before
+     */
+    private boolean prepare(Request<?> request) {
+        if (request instanceof DeleteIndices) {
+            deleted(((DeleteIndices) request).indices());
+            return false;
+        }
+        return !(request instanceof CreateIndex) && !(request instanceof CreateTemplate)
+                && !(request instanceof DeleteTemplates);
+    }
+
+    private void deleted(String[] indices) {
+        synchronized (dirtyIndices) {
+            if ((indices == null) || (indices.length == 0) || Arrays.asList(indices).contains("_all")) {
+                dirtyIndices.clear();
+            } else {
+                dirtyIndices.removeIf(index -> Regex.simpleMatch(indices, index));
+            }
+        }
+    }
+
+    private void written(RefreshStrategy strategy, Collection<String> indices) {
+        if (strategy == RefreshStrategy.DEFERRED) {
+            synchronized (dirtyIndices) {
+                dirtyIndices.addAll(indices);
+            }
+        }
+    }
+}
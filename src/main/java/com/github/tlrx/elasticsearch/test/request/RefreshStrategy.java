@@ -0,0 +1,78 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import org.elasticsearch.action.support.WriteRequest;
+
+/**
+ * When the documents written by {@link Index}, {@link Delete} and {@link DocumentBulk} requests become visible to
+ * searches. Refreshing the shards after each request makes the documents visible immediately, but it is the main cost
+ * of setups writing many documents.
+ * <br/>
+ * The strategy is selected for all the requests executed by an {@link com.github.tlrx.elasticsearch.test.EsSetup}, or
+ * per request.
+ */
+public enum RefreshStrategy {
+
+    /**
+     * Refreshes the shards once the request is executed, the default
+     */
+    IMMEDIATE(WriteRequest.RefreshPolicy.IMMEDIATE),
+
+    /**
+     * Waits for the next periodic refresh of the shards before the request completes
+     */
+    WAIT_UNTIL(WriteRequest.RefreshPolicy.WAIT_UNTIL),
+
+    /**
+     * Does not refresh, documents become visible to searches after the next periodic refresh. Documents can still
+     * be read by id.
+     */
+    NONE(WriteRequest.RefreshPolicy.NONE),
+
+    /**
+     * Does not refresh the shards after each request, but refreshes once the indices written by all the requests of a
+     * batch executed by {@link com.github.tlrx.elasticsearch.test.EsSetup#execute(Request...)},
+     * {@link com.github.tlrx.elasticsearch.test.EsSetup#executeAsync(Request...)} or
+     * {@link com.github.tlrx.elasticsearch.test.EsSetup#executePlanned(Request...)}, at the end of the batch or before
+     * a request of the batch which may search them. Requests executed outside of a batch are refreshed
+     * immediately.
+     */
+    DEFERRED(WriteRequest.RefreshPolicy.NONE);
+
+    private final WriteRequest.RefreshPolicy policy;
+
+    RefreshStrategy(WriteRequest.RefreshPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return the refresh policy of a write request executed with this strategy
+     */
+    WriteRequest.RefreshPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * @return the strategy of a request executed outside of a batch, when no other strategy is selected
+     */
+    static RefreshStrategy outsideBatch(RefreshStrategy strategy) {
+        return ((strategy == null) || (strategy == DEFERRED)) ? IMMEDIATE : strategy;
+    }
+}
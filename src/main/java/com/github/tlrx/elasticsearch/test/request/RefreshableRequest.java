@@ -0,0 +1,52 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.tlrx.elasticsearch.test.request;
+
+import org.elasticsearch.client.Client;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link AsyncRequest} which reads or writes documents according to a {@link RefreshStrategy}, executed by a
+ * {@link RefreshBatch} with the strategy of the batch when the request does not select its own.
+ *
+ * @param <T>
+ */
+interface RefreshableRequest<T> extends AsyncRequest<T> {
+
+    /**
+     * @return the refresh strategy selected for this request, null if not selected
+     */
+    RefreshStrategy refreshStrategy();
+
+    /**
+     * Sends the request without blocking, refreshed according to the given strategy
+     *
+     * @param client   the client used to send the request
+     * @param strategy the strategy of the request, never null
+     * @return the future result of the request
+     */
+    CompletableFuture<T> send(Client client, RefreshStrategy strategy);
+
+    /**
+     * @return the indices of the documents written by the request, to refresh with {@link RefreshStrategy#DEFERRED}
+     */
+    Collection<String> writtenIndices();
+}
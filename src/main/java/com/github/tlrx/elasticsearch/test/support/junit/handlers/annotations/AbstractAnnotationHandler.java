@@ -1,9 +1,11 @@
 package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 
+import com.github.tlrx.elasticsearch.test.node.LazyNode;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.node.Node;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,15 +27,22 @@ public class AbstractAnnotationHandler {
      */
     protected Client client(Map<String, Object> context, String nodeName) throws Exception {
         // Get a node
-        Node node = (Node) context.get(nodeName);
+        LazyNode node = (LazyNode) context.get(nodeName);
         if (node == null) {
-            if (context.size() == 1) {
-                node = (Node) context.values().iterator().next();
+            // The context also holds clusters and pending requests, look for the only node
+            List<LazyNode> nodes = new ArrayList<>();
+            for (Object value : context.values()) {
+                if (value instanceof LazyNode) {
+                    nodes.add((LazyNode) value);
+                }
+            }
+            if (nodes.size() == 1) {
+                node = nodes.get(0);
             } else {
                 throw new Exception("Unable to manage index: nodeName must be defined.");
             }
         }
-        return node.client();
+        return node.node().client();
     }
 
     /**
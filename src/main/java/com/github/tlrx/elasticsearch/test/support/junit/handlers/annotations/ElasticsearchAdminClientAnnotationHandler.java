@@ -4,8 +4,8 @@
 package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 
 import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchAdminClient;
+import com.github.tlrx.elasticsearch.test.node.LazyNode;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.FieldLevelElasticsearchAnnotationHandler;
-import org.elasticsearch.node.Node;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
@@ -30,11 +30,11 @@ public class ElasticsearchAdminClientAnnotationHandler implements FieldLevelElas
         String nodeName = elasticsearchAdminClient.nodeName();
 
         if (nodeName != null) {
-            Node node = (Node) context.get(nodeName);
+            LazyNode node = (LazyNode) context.get(nodeName);
             if (node != null) {
                 try {
                     field.setAccessible(true);
-                    field.set(instance, node.client().admin());
+                    field.set(instance, node.adminClient());
                 } catch (Exception e) {
                     LOGGER.severe("Unable to set node for field " + field.getName() + ": " + e.getMessage());
                 }
@@ -4,14 +4,17 @@
 package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 
 import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchBulkRequest;
+import com.github.tlrx.elasticsearch.test.provider.ClassPathJSONProvider;
+import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
+import com.github.tlrx.elasticsearch.test.request.BulkCache;
+import com.github.tlrx.elasticsearch.test.request.BulkLoader;
+import com.github.tlrx.elasticsearch.test.request.ForceMerge;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.MethodLevelElasticsearchAnnotationHandler;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -32,63 +35,72 @@ public class ElasticsearchBulkRequestAnnotationHandler extends AbstractAnnotatio
     public void handleBefore(Annotation annotation, Object instance, Map<String, Object> context) throws Exception {
         ElasticsearchBulkRequest elasticsearchBulkRequest = (ElasticsearchBulkRequest) annotation;
 
-        InputStream input = null;
-        ByteArrayOutputStream output = null;
+        // Get a Client for the node
+        Client client = client(context, elasticsearchBulkRequest.nodeName());
 
-        try {
-            // Get an AdminClient for the node
-            Client client = client(context, elasticsearchBulkRequest.nodeName());
-
-            // Load file as byte array
-            input = getClass().getResourceAsStream(elasticsearchBulkRequest.dataFile());
-            if (input == null) {
-                input = Thread.currentThread()
-                        .getContextClassLoader()
-                        .getResourceAsStream(
-                                elasticsearchBulkRequest.dataFile());
-            }
-            if (input == null) {
-                throw new IllegalArgumentException("Bulk file " + elasticsearchBulkRequest.dataFile() + " not found!");
-            }
-            output = new ByteArrayOutputStream();
+        // Locate the data file, it is memory-mapped or streamed into the bulk requests
+        String dataFile = elasticsearchBulkRequest.dataFile();
+        JSONProvider data;
+        if (getClass().getResource(dataFile) != null) {
+            data = new ClassPathJSONProvider(getClass(), dataFile);
+        } else if (Thread.currentThread().getContextClassLoader().getResource(dataFile) != null) {
+            data = new ClassPathJSONProvider(Thread.currentThread().getContextClassLoader(), dataFile);
+        } else {
+            throw new IllegalArgumentException("Bulk file " + dataFile + " not found!");
+        }
 
-            byte[] buffer = new byte[512 * 1024];
-            while (true) {
-                int bytesRead = input.read(buffer);
-                if (bytesRead == -1)
-                    break;
-                output.write(buffer, 0, bytesRead);
-            }
+        BackoffPolicy backoff = BackoffPolicy.noBackoff();
+        if (elasticsearchBulkRequest.backoffRetries() > 0) {
+            backoff = BackoffPolicy.exponentialBackoff(
+                    TimeValue.parseTimeValue(elasticsearchBulkRequest.backoffDelay(), "backoffDelay"),
+                    elasticsearchBulkRequest.backoffRetries());
+        }
+        TimeValue flushInterval = null;
+        if (!elasticsearchBulkRequest.flushInterval().isEmpty()) {
+            flushInterval = TimeValue.parseTimeValue(elasticsearchBulkRequest.flushInterval(), "flushInterval");
+        }
 
-            buffer = output.toByteArray();
+        // Execute the bulk requests, fails on item failures
+        BulkLoader.Stats stats = new BulkLoader(client)
+                .withDefaults(emptyToNull(elasticsearchBulkRequest.defaultIndexName()),
+                        emptyToNull(elasticsearchBulkRequest.defaultTypeName()))
+                .withBulkActions(elasticsearchBulkRequest.bulkActions())
+                .withBulkSize(ByteSizeValue.parseBytesSizeValue(elasticsearchBulkRequest.bulkSize(), "bulkSize"))
+                .withConcurrentRequests(elasticsearchBulkRequest.concurrentRequests())
+                .withFlushInterval(flushInterval)
+                .withBackoff(backoff)
+                .withContentType(elasticsearchBulkRequest.contentType())
+                .withOptimizedIndexing(elasticsearchBulkRequest.optimizedIndexing())
+                .withCache(BulkCache.defaultCache())
+                .load(data);
 
-            // Execute the BulkRequest
-            BulkResponse response = client.prepareBulk()
-                    .add(buffer, 0, buffer.length, elasticsearchBulkRequest.defaultIndexName(), elasticsearchBulkRequest.defaultTypeName(), XContentType.JSON)
-                    .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
-                    .execute()
-                    .actionGet();
+        LOGGER.info(String.format("Bulk request for data file '%s' executed in %d ms with %d actions",
+                elasticsearchBulkRequest.dataFile(),
+                stats.getTime().millis(),
+                stats.getActions()));
 
-            LOGGER.info(String.format("Bulk request for data file '%s' executed in %d ms with %sfailures",
-                    elasticsearchBulkRequest.dataFile(),
-                    response.getTook().getMillis(),
-                    response.hasFailures() ? "" : "no "));
-        } finally {
-            try {
-                if (output != null) {
-                    output.close();
-                }
-            } catch (Exception e) {
-            }
-            try {
-                if (input != null) {
-                    input.close();
+        // Force-merge the indices that received documents, as requested by the bulk request or by the index
+        if (!stats.getIndices().isEmpty()) {
+            if (elasticsearchBulkRequest.forceMergeSegments() > 0) {
+                new ForceMerge(stats.getIndices().toArray(new String[stats.getIndices().size()]))
+                        .withMaxSegments(elasticsearchBulkRequest.forceMergeSegments())
+                        .withWaitForMerges(elasticsearchBulkRequest.waitForMerges())
+                        .execute(client);
+            } else {
+                for (String index : stats.getIndices()) {
+                    ForceMerge forceMerge = (ForceMerge) context.get(ElasticsearchIndexAnnotationHandler.forceMergeKey(index));
+                    if (forceMerge != null) {
+                        forceMerge.execute(client);
+                    }
                 }
-            } catch (Exception e) {
             }
         }
     }
 
+    private static String emptyToNull(String value) {
+        return ((value == null) || value.isEmpty()) ? null : value;
+    }
+
     public void handleAfter(Annotation annotation, Object instance, Map<String, Object> context) throws Exception {
         // Nothing to do here
     }
@@ -4,8 +4,8 @@
 package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 
 import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchClient;
+import com.github.tlrx.elasticsearch.test.node.LazyNode;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.FieldLevelElasticsearchAnnotationHandler;
-import org.elasticsearch.node.Node;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
@@ -30,7 +30,7 @@ public class ElasticsearchClientAnnotationHandler implements FieldLevelElasticse
         String nodeName = elasticsearchClient.nodeName();
 
         if (nodeName != null) {
-            Node node = (Node) context.get(nodeName);
+            LazyNode node = (LazyNode) context.get(nodeName);
             if (node != null) {
                 try {
                     field.setAccessible(true);
@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
+
+import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchCluster;
+import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchSetting;
+import com.github.tlrx.elasticsearch.test.node.EmbeddedCluster;
+import com.github.tlrx.elasticsearch.test.node.LazyNode;
+import com.github.tlrx.elasticsearch.test.node.NodeLease;
+import com.github.tlrx.elasticsearch.test.support.junit.handlers.ClassLevelElasticsearchAnnotationHandler;
+import com.github.tlrx.elasticsearch.test.support.junit.handlers.FieldLevelElasticsearchAnnotationHandler;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Handle {@link ElasticsearchCluster} annotation
+ *
+ * @author tlrx
+ */
+public class ElasticsearchClusterAnnotationHandler implements ClassLevelElasticsearchAnnotationHandler, FieldLevelElasticsearchAnnotationHandler {
+
+    public boolean support(Annotation annotation) {
+        return (annotation instanceof ElasticsearchCluster);
+    }
+
+    public void beforeClass(Object testClass, Map<String, Object> context) throws Exception {
+        // Nothing to do here
+    }
+
+    public void handleBeforeClass(Annotation annotation, Object testClass, Map<String, Object> context) {
+        // Start the cluster
+        buildCluster((ElasticsearchCluster) annotation, context);
+    }
+
+    public void handleAfterClass(Annotation annotation, Object testClass, Map<String, Object> context) {
+        // Nothing to do here
+    }
+
+    public void afterClass(Object testClass, Map<String, Object> context) throws Exception {
+        // Release the nodes of the clusters, they are stopped by the registry once they are not used anymore
+        for (Iterator<Object> it = context.values().iterator(); it.hasNext(); ) {
+            Object obj = it.next();
+            if (obj instanceof EmbeddedCluster) {
+                EmbeddedCluster cluster = (EmbeddedCluster) obj;
+                if (cluster.isStarted()) {
+                    for (NodeLease lease : cluster.leases()) {
+                        context.remove(lease.node().settings().get("node.name"));
+                    }
+                }
+                cluster.close();
+                it.remove();
+            }
+        }
+    }
+
+    public void handleField(Annotation annotation, Object instance, Map<String, Object> context, Field field) throws Exception {
+        // Get the cluster
+        EmbeddedCluster cluster = buildCluster((ElasticsearchCluster) annotation, context);
+
+        // Sets the cluster or its round-robin client as the field's value
+        try {
+            field.setAccessible(true);
+            if (Client.class.isAssignableFrom(field.getType())) {
+                field.set(instance, cluster.client());
+            } else {
+                field.set(instance, cluster);
+            }
+        } catch (Exception e) {
+            throw new Exception("Exception when setting the cluster:" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Starts a cluster, or retrieves an existing one from context. The nodes of a new cluster are registered in the
+     * context under their names.
+     *
+     * @param elasticsearchCluster
+     * @param context
+     * @return a started {@link EmbeddedCluster}
+     */
+    private EmbeddedCluster buildCluster(ElasticsearchCluster elasticsearchCluster, Map<String, Object> context) {
+        String clusterName = elasticsearchCluster.name();
+        EmbeddedCluster cluster = (EmbeddedCluster) context.get(clusterName);
+
+        if (cluster == null) {
+            // Settings of all the nodes
+            Settings.Builder settingsBuilder = Settings.builder();
+            for (ElasticsearchSetting setting : elasticsearchCluster.settings()) {
+                settingsBuilder.put(setting.name(), setting.value());
+            }
+
+            cluster = new EmbeddedCluster(clusterName)
+                    .withMasterNodes(elasticsearchCluster.masterNodes())
+                    .withDataNodes(elasticsearchCluster.dataNodes())
+                    .withCoordinatingNodes(elasticsearchCluster.coordinatingNodes())
+                    .withSettings(settingsBuilder.build())
+                    .withStorage(elasticsearchCluster.storage())
+                    .start();
+            context.put(clusterName, cluster);
+
+            for (NodeLease lease : cluster.leases()) {
+                context.put(lease.node().settings().get("node.name"), new LazyNode(lease));
+            }
+        }
+        return cluster;
+    }
+}
@@ -5,6 +5,7 @@ package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.annotations.*;
+import com.github.tlrx.elasticsearch.test.request.ForceMerge;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.MethodLevelElasticsearchAnnotationHandler;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
@@ -42,11 +43,21 @@ public class ElasticsearchIndexAnnotationHandler extends AbstractAnnotationHandl
     }
 
     public void handleBefore(Annotation annotation, Object instance, Map<String, Object> context) throws Exception {
-        buildIndex((ElasticsearchIndex) annotation, context);
+        ElasticsearchIndex elasticsearchIndex = (ElasticsearchIndex) annotation;
+        buildIndex(elasticsearchIndex, context);
+
+        if (elasticsearchIndex.forceMergeSegments() > 0) {
+            ForceMerge forceMerge = new ForceMerge(elasticsearchIndex.indexName())
+                    .withMaxSegments(elasticsearchIndex.forceMergeSegments())
+                    .withWaitForMerges(elasticsearchIndex.waitForMerges());
+            // The index is still empty, bulk requests of the test method force-merge it once their data is loaded
+            context.put(forceMergeKey(elasticsearchIndex.indexName()), forceMerge);
+        }
     }
 
     public void handleAfter(Annotation annotation, Object instance, Map<String, Object> context) throws Exception {
         ElasticsearchIndex elasticsearchIndex = (ElasticsearchIndex) annotation;
+        context.remove(forceMergeKey(elasticsearchIndex.indexName()));
 
         // Cleans (delete all documents) in the index
         if (elasticsearchIndex.cleanAfter()) {
@@ -54,6 +65,13 @@ public class ElasticsearchIndexAnnotationHandler extends AbstractAnnotationHandl
         }
     }
 
+    /**
+     * @return the key of the force merge of an index in the execution context
+     */
+    static String forceMergeKey(String indexName) {
+        return ForceMerge.class.getName() + "#" + indexName;
+    }
+
     /**
      * Delete all documents in the index
      *
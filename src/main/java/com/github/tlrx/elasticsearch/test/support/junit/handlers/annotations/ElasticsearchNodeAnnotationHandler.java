@@ -6,25 +6,24 @@ package com.github.tlrx.elasticsearch.test.support.junit.handlers.annotations;
 import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
 import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchNode;
 import com.github.tlrx.elasticsearch.test.annotations.ElasticsearchSetting;
+import com.github.tlrx.elasticsearch.test.node.LazyNode;
+import com.github.tlrx.elasticsearch.test.node.NodeDirectories;
+import com.github.tlrx.elasticsearch.test.node.NodeProfile;
+import com.github.tlrx.elasticsearch.test.node.NodeRegistry;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.ClassLevelElasticsearchAnnotationHandler;
 import com.github.tlrx.elasticsearch.test.support.junit.handlers.FieldLevelElasticsearchAnnotationHandler;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
-import org.elasticsearch.node.InternalSettingsPreparer;
 import org.elasticsearch.node.Node;
-import org.elasticsearch.node.NodeValidationException;
-import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.transport.Netty4Plugin;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 
-import static com.github.tlrx.elasticsearch.test.provider.LocalClientProvider.deleteRecursively;
 import static java.util.Collections.singletonList;
 
 /**
@@ -34,10 +33,6 @@ import static java.util.Collections.singletonList;
  */
 public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsearchAnnotationHandler, FieldLevelElasticsearchAnnotationHandler {
 
-    /**
-     * Elasticsearch home directory
-     */
-    private static final String ES_HOME = "./target/elasticsearch-test";
     private static final String NODE_NAME = "node.name";
 
     public boolean support(Annotation annotation) {
@@ -49,8 +44,12 @@ public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsear
     }
 
     public void handleBeforeClass(Annotation annotation, Object testClass, Map<String, Object> context) {
-        // Instantiate a node
-        buildNode((ElasticsearchNode) annotation, context);
+        // Declare a node, started on first use or in background when warm-up is enabled
+        ElasticsearchNode elasticsearchNode = (ElasticsearchNode) annotation;
+        LazyNode node = buildNode(elasticsearchNode, context);
+        if (elasticsearchNode.warmUp()) {
+            node.warmUp();
+        }
     }
 
     public void handleAfterClass(Annotation annotation, Object testClass, Map<String, Object> context) {
@@ -58,21 +57,19 @@ public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsear
     }
 
     public void afterClass(Object testClass, Map<String, Object> context) throws Exception {
-        for (Object obj : context.values()) {
-            if (obj instanceof Node) {
-                Node node = (Node) obj;
-
-                if (!node.isClosed()) {
-                    node.close();
-                }
+        // Release the nodes, they are stopped by the registry once they are not used anymore
+        for (Iterator<Object> it = context.values().iterator(); it.hasNext(); ) {
+            Object obj = it.next();
+            if (obj instanceof LazyNode) {
+                ((LazyNode) obj).release();
+                it.remove();
             }
         }
-        deleteRecursively(new File(ES_HOME));
     }
 
     public void handleField(Annotation annotation, Object instance, Map<String, Object> context, Field field) throws Exception {
-        // Get the node
-        Node node = buildNode((ElasticsearchNode) annotation, context);
+        // Get the node, a Node can not be proxied so it is started now
+        Node node = buildNode((ElasticsearchNode) annotation, context).node();
 
         // Sets the node as the field's value
         try {
@@ -84,34 +81,42 @@ public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsear
     }
 
     /**
-     * Builds & start a new node, or retrieves an existing one from context
+     * Declares a node leased from the {@link NodeRegistry} on first use, or retrieves an existing one from context
      *
      * @param elasticsearchNode
      * @param context
-     * @return a {@link Node}
+     * @return a {@link LazyNode}
      */
-    private Node buildNode(ElasticsearchNode elasticsearchNode, Map<String, Object> context) {
+    private LazyNode buildNode(ElasticsearchNode elasticsearchNode, Map<String, Object> context) {
 
         // Create the node's settings
         Settings settings = buildNodeSettings(elasticsearchNode);
 
         // Search for the node in current context
         String nodeName = settings.get(NODE_NAME);
-        Node node = (Node) context.get(nodeName);
+        LazyNode node = (LazyNode) context.get(nodeName);
 
         if (node == null) {
-            // No node with this name has been found, let's instantiate a new one
-            node = new MyNode(settings, singletonList(Netty4Plugin.class));
-            try {
-                node.start();
-            } catch (NodeValidationException e) {
-                throw new RuntimeException();
-            }
+            // No node with this name has been found, let's declare one
+            NodeProfile profile = elasticsearchNode.profile().isEmpty() ? NodeProfile.defaultProfile()
+                    : NodeProfile.of(elasticsearchNode.profile(), "@ElasticsearchNode(profile)");
+            node = new LazyNode(settings, singletonList(Netty4Plugin.class), elasticsearchNode.storage(), profile);
             context.put(nodeName, node);
         }
         return node;
     }
 
+    /**
+     * @return the cluster name, made unique to the JVM when it is the default one so that the nodes of concurrent
+     * test forks do not join each other
+     */
+    static String clusterName(String clusterName) {
+        if (ElasticsearchNode.DEFAULT_CLUSTER_NAME.equals(clusterName)) {
+            return clusterName + "-" + NodeDirectories.forkId();
+        }
+        return clusterName;
+    }
+
     /**
      * Build node settings
      */
@@ -123,15 +128,9 @@ public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsear
                 .put("node.data", elasticsearchNode.data())
                 .put("node.max_local_storage_nodes", 10)
                 .put("node.attr.local", elasticsearchNode.local())
-                .put("cluster.name", elasticsearchNode.clusterName())
-                .put("path.home", ES_HOME)
-                .put("path.data", ES_HOME + "/data")
-                .put("path.logs", ES_HOME + "/logs")
-                //.put("index.number_of_shards", "1")
-                //.put("index.number_of_replicas", "0")
+                .put("cluster.name", clusterName(elasticsearchNode.clusterName()))
                 .put("transport.type", "netty4")
-                .put("http.type", "netty4")
-                .put("http.enabled", "true");
+                .put("http.type", "netty4");
 
         // Loads settings from configuration file
         String settingsFile = elasticsearchNode.configFile();
@@ -152,10 +151,4 @@ public class ElasticsearchNodeAnnotationHandler implements ClassLevelElasticsear
         // Build the settings
         return settingsBuilder.build();
     }
-
-    private static class MyNode extends Node {
-        public MyNode(Settings preparedSettings, Collection<Class<? extends Plugin>> classpathPlugins) {
-            super(InternalSettingsPreparer.prepareEnvironment(preparedSettings, null), classpathPlugins);
-        }
-    }
 }
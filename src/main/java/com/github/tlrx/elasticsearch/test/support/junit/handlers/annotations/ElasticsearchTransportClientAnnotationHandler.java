@@ -35,7 +35,7 @@ public class ElasticsearchTransportClientAnnotationHandler implements ClassLevel
 
         // Settings
         Settings settings = Settings.builder()
-                .put("cluster.name", String.valueOf(elasticsearchTransportClient.clusterName()))
+                .put("cluster.name", ElasticsearchNodeAnnotationHandler.clusterName(elasticsearchTransportClient.clusterName()))
                 .build();
 
         TransportClient client = new PreBuiltTransportClient(settings);
@@ -64,6 +64,7 @@ public class ElasticsearchRunner extends BlockJUnit4ClassRunner {
 
         // Declares the elasticsearch annotations handlers to use
         // Be careful, order is important
+        classRule.addHandler(new ElasticsearchClusterAnnotationHandler());
         classRule.addHandler(new ElasticsearchNodeAnnotationHandler());
         classRule.addHandler(new ElasticsearchTransportClientAnnotationHandler());
 
@@ -82,6 +83,7 @@ public class ElasticsearchRunner extends BlockJUnit4ClassRunner {
 
         // Declares the elasticsearch annotations handlers to use
         // Be careful, order is important
+        fieldsRule.addHandler(new ElasticsearchClusterAnnotationHandler());
         fieldsRule.addHandler(new ElasticsearchNodeAnnotationHandler());
         fieldsRule.addHandler(new ElasticsearchClientAnnotationHandler());
         fieldsRule.addHandler(new ElasticsearchAdminClientAnnotationHandler());
@@ -1,11 +1,33 @@
 package com.github.tlrx.elasticsearch.test;
 
 
+import com.github.tlrx.elasticsearch.test.node.EmbeddedCluster;
 import com.github.tlrx.elasticsearch.test.provider.LocalClientProvider;
+import com.github.tlrx.elasticsearch.test.request.DocumentBulk;
+import com.github.tlrx.elasticsearch.test.request.ExecutionPlan;
+import com.github.tlrx.elasticsearch.test.request.ExistsAll;
+import com.github.tlrx.elasticsearch.test.request.ForceMerge;
+import com.github.tlrx.elasticsearch.test.request.RefreshStrategy;
+import com.github.tlrx.elasticsearch.test.request.Request;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import static com.github.tlrx.elasticsearch.test.EsSetup.*;
 import static org.codehaus.groovy.runtime.InvokerHelper.asList;
 import static org.junit.Assert.*;
@@ -142,6 +164,291 @@ public class EsSetupTest {
         
     }
 
+    @Test
+    public void testIndexWithJSONProvider() {
+        esSetup.execute(index("catalog-2013", "product", "8").withSource(() -> "{ \"field1\" : \"value8\" }"));
+        assertTrue(esSetup.exists("catalog-2013", "product", "8"));
+    }
+
+    @Test
+    public void testIndexWithCborSource() throws Exception {
+        Path file = Files.createTempFile("source", ".cbor");
+        try {
+            Files.write(file, BytesReference.toBytes(XContentFactory.contentBuilder(XContentType.CBOR)
+                    .startObject().field("field1", "value9").endObject().bytes()));
+
+            esSetup.execute(index("catalog-2013", "product", "9").withSource(fromFile(file), XContentType.CBOR));
+            assertTrue(esSetup.exists("catalog-2013", "product", "9"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testForceMerge() {
+        esSetup.execute(createIndex("catalog-merge")
+                .withSettings(Settings.builder().put("index.number_of_shards", 1).build()));
+        // Each document is refreshed on its own and written in its own segment
+        for (int i = 0; i < 3; i++) {
+            esSetup.execute(index("catalog-merge", "product", String.valueOf(i)).withSource("{ \"field1\" : \"value" + i + "\" }"));
+        }
+        assertEquals(3, esSetup.client().admin().indices().prepareSegments("catalog-merge").get()
+                .getIndices().get("catalog-merge").getShards().get(0).getShards()[0].getSegments().size());
+
+        ForceMerge.Segments segments = forceMerge("catalog-merge").execute(esSetup.client());
+        assertEquals(1, segments.getCount());
+        assertTrue(segments.getSize().getBytes() > 0);
+        assertEquals(Long.valueOf(3), esSetup.count("catalog-merge"));
+    }
+
+    @Test
+    public void testCreateIndexWithForceMerge() {
+        esSetup.execute(deleteIndex("catalog-2013"), createIndex("catalog-2013")
+                .withSettings(Settings.builder().put("index.number_of_shards", 1).build())
+                .withMapping("product", fromClassPath("com/github/tlrx/elasticsearch/test/mappings/product.json"))
+                .withData(fromClassPath("com/github/tlrx/elasticsearch/test/data/products.json"))
+                .withBulkActions(1)
+                .withForceMerge(1, true));
+        assertEquals(1, esSetup.client().admin().indices().prepareStats("catalog-2013").setSegments(true).get()
+                .getPrimaries().getSegments().getCount());
+    }
+
+    @Test
+    public void testExecuteAsync() {
+        List<Request> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(createIndex("async-" + i));
+            requests.add(createTemplate("async-template-" + i).withTemplate("async-" + i + "-*"));
+        }
+        requests.add(index("catalog-2013", "product", "9").withSource("{ \"field1\" : \"value9\" }"));
+        // Force merges block, they are executed on the thread pool
+        requests.add(createIndex("async-merged").withForceMerge(1, true));
+        requests.add(forceMerge("catalog-2011"));
+
+        assertSame(esSetup, esSetup.executeAsync(3, requests.toArray(new Request[requests.size()])).join());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(esSetup.exists("async-" + i));
+        }
+        assertTrue(esSetup.exists("catalog-2013", "product", "9"));
+        assertTrue(esSetup.exists("async-merged"));
+    }
+
+    @Test
+    public void testExecuteAsyncFailure() throws Exception {
+        CompletableFuture<EsSetup> future = esSetup.executeAsync(createIndex("async-ok"), createIndex("catalog-2009"));
+        try {
+            future.get();
+            fail("Creating an existing index must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EsSetupRuntimeException);
+            assertTrue(e.getCause().getMessage().contains("catalog-2009"));
+        }
+        assertTrue(esSetup.exists("async-ok"));
+    }
+
+    @Test
+    public void testExecutePlanned() {
+        Request template = createTemplate("planned-template").withTemplate("planned-*")
+                .withSettings(Settings.builder().put("index.number_of_shards", 3).build());
+        Request delete = deleteIndices("planned-*");
+        Request index = createIndex("planned-1");
+        Request document = index("planned-1", "product", "1").withSource("{ \"field1\" : \"value1\" }");
+
+        ExecutionPlan plan = esSetup.executePlanned(
+                delete,
+                template,
+                index,
+                createIndex("planned-2"),
+                createIndex("other-planned"),
+                document);
+
+        assertEquals("3", esSetup.client().admin().indices().prepareGetSettings("planned-1").get()
+                .getSetting("planned-1", "index.number_of_shards"));
+        assertTrue(esSetup.exists("planned-1", "product", "1"));
+        assertTrue(esSetup.exists("planned-2"));
+        assertTrue(esSetup.exists("other-planned"));
+
+        // The document waits for its index, which waits for the template and the deletion
+        assertTrue(plan.getDependencies(document).contains(index));
+        assertTrue(plan.getDependencies(index).contains(template));
+        assertTrue(plan.getDependencies(index).contains(delete));
+        assertFalse(plan.getCriticalPath().isEmpty());
+        assertTrue(plan.getCriticalPathTime().nanos() <= plan.getTime().nanos());
+    }
+
+    @Test
+    public void testCoalescedWrites() {
+        esSetup.execute(
+                index("catalog-2013", "product", "10").withSource("{ \"field1\" : \"value10\" }"),
+                index("catalog-2013", "product", "11").withSource("{ \"field1\" : \"value11\" }"),
+                delete("catalog-2013", "product", "10"),
+                index("catalog-2009", "product", "12").withSource("{ \"field1\" : \"value12\" }"));
+
+        assertFalse(esSetup.exists("catalog-2013", "product", "10"));
+        assertTrue(esSetup.exists("catalog-2013", "product", "11"));
+        // Refreshed once the bulk request is executed
+        assertEquals(Long.valueOf(1), esSetup.count("catalog-2009"));
+    }
+
+    @Test
+    public void testCoalescedWritesFailures() {
+        try {
+            esSetup.execute(
+                    index("catalog-2010", "type2010", "1").withSource("{ \"field1\" : \"value1\" }"),
+                    // Indices can only have one type
+                    index("catalog-2010", "other", "2").withSource("{ \"field1\" : \"value2\" }"),
+                    index("catalog-2010", "type2010", "3").withSource("{ \"field1\" : \"value3\" }"));
+            fail("The document of another type must fail");
+        } catch (EsSetupRuntimeException e) {
+            assertTrue(e.getCause().getMessage().contains("index [index='catalog-2010',type='other']"));
+        }
+        // The other documents are indexed
+        assertEquals(Long.valueOf(2), esSetup.count("catalog-2010"));
+    }
+
+    @Test
+    public void testDocumentBulkAsync() throws Exception {
+        CompletableFuture<EsSetup> future = esSetup.executeAsync(new DocumentBulk(Arrays.asList(
+                index("catalog-2010", "type2010", "1").withSource("{ \"field1\" : \"value1\" }"),
+                index("catalog-2010", "other", "2").withSource("{ \"field1\" : \"value2\" }"))));
+        try {
+            future.get();
+            fail("The document of another type must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause().getMessage().contains("index [index='catalog-2010',type='other']"));
+        }
+        assertEquals(Long.valueOf(1), esSetup.count("catalog-2010"));
+    }
+
+    @Test
+    public void testWithoutCoalescedWrites() {
+        esSetup.withCoalescedWrites(false);
+        try {
+            esSetup.execute(
+                    index("catalog-2010", "other", "2").withSource("{ \"field1\" : \"value2\" }"),
+                    index("catalog-2010", "type2010", "3").withSource("{ \"field1\" : \"value3\" }"));
+            fail("The document of another type must fail");
+        } catch (EsSetupRuntimeException e) {
+            // Execution stops on the first failure
+            assertEquals(Long.valueOf(0), esSetup.count("catalog-2010"));
+        }
+    }
+
+    @Test
+    public void testDeferredRefreshStrategy() {
+        esSetup.execute(createIndex("refresh")
+                .withSettings(Settings.builder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.refresh_interval", -1)
+                        .build()));
+        esSetup.withCoalescedWrites(false);
+
+        long refreshes = refreshes("refresh");
+        esSetup.execute(
+                index("refresh", "doc", "1").withSource("{}"),
+                index("refresh", "doc", "2").withSource("{}"),
+                index("refresh", "doc", "3").withSource("{}"));
+        long immediate = refreshes("refresh") - refreshes;
+
+        refreshes = refreshes("refresh");
+        esSetup.withRefreshStrategy(RefreshStrategy.DEFERRED).execute(
+                index("refresh", "doc", "4").withSource("{}"),
+                index("refresh", "doc", "5").withSource("{}"),
+                delete("refresh", "doc", "1"));
+        long deferred = refreshes("refresh") - refreshes;
+
+        assertTrue("Refreshes: " + immediate + " immediate, " + deferred + " deferred", deferred < immediate);
+        assertEquals(Long.valueOf(4), esSetup.count("refresh"));
+    }
+
+    @Test
+    public void testNoneRefreshStrategy() {
+        esSetup.execute(createIndex("refresh")
+                .withSettings(Settings.builder().put("index.refresh_interval", -1).build()));
+        esSetup.withRefreshStrategy(RefreshStrategy.NONE).execute(
+                index("refresh", "doc", "1").withSource("{}"),
+                index("refresh", "doc", "2").withSource("{}"));
+
+        assertEquals(Long.valueOf(0), esSetup.count("refresh"));
+        // Documents are read in real time
+        assertTrue(esSetup.exists("refresh", "doc", "1"));
+    }
+
+    @Test
+    public void testConcurrentRefreshStrategy() {
+        esSetup.execute(createIndex("refresh")
+                .withSettings(Settings.builder().put("index.refresh_interval", -1).build()));
+        esSetup.withRefreshStrategy(RefreshStrategy.NONE).executeAsync(
+                index("refresh", "doc", "1").withSource("{}"),
+                index("refresh", "doc", "2").withSource("{}")).join();
+        assertEquals(Long.valueOf(0), esSetup.count("refresh"));
+
+        // The indices are refreshed once at the end of the plan
+        esSetup.withRefreshStrategy(RefreshStrategy.DEFERRED).executePlanned(
+                index("refresh", "doc", "3").withSource("{}"),
+                index("refresh", "doc", "4").withSource("{}"));
+        assertEquals(Long.valueOf(4), esSetup.count("refresh"));
+    }
+
+    @Test
+    public void testExistsAll() {
+        List<Request> documents = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        Set<String> expected = new LinkedHashSet<>();
+        for (int i = 0; i < 30; i++) {
+            if (i % 3 != 0) {
+                documents.add(index("catalog-2009", "product", String.valueOf(i)).withSource("{ \"field1\" : \"value\" }"));
+                expected.add(String.valueOf(i));
+            }
+            ids.add(String.valueOf(i));
+        }
+        esSetup.execute(documents.toArray(new Request[documents.size()]));
+
+        assertEquals(expected, esSetup.existsAll("catalog-2009", "product", ids));
+        assertEquals(expected, new ExistsAll("catalog-2009", "product", ids).withChunkSize(7).execute(esSetup.client()));
+        assertEquals(Collections.singleton("1"), esSetup.existsAll("catalog-2009", "product", "0", "1", "missing"));
+        assertTrue(esSetup.existsAll("catalog-2009", "product").isEmpty());
+    }
+
+    @Test(expected = EsSetupRuntimeException.class)
+    public void testExistsAllMissingIndex() {
+        esSetup.existsAll("missing", "product", "1");
+    }
+
+    private long refreshes(String index) {
+        return esSetup.client().admin().indices().prepareStats(index).clear().setRefresh(true).get()
+                .getTotal().getRefresh().getTotal();
+    }
+
+    @Test
+    public void testEmbeddedCluster() {
+        EsSetup clusterSetup = new EsSetup(new EmbeddedCluster("es-setup-cluster").withDataNodes(2));
+        try {
+            clusterSetup.execute(
+                    createIndex("catalog-2013")
+                            .withSettings(fromClassPath("com/github/tlrx/elasticsearch/test/settings/catalog.json"))
+                            .withMapping("product", fromClassPath("com/github/tlrx/elasticsearch/test/mappings/product.json"))
+                            .withData(fromClassPath("com/github/tlrx/elasticsearch/test/data/products.json"))
+            );
+            assertTrue(clusterSetup.exists("catalog-2013"));
+            assertEquals(esSetup.count("catalog-2013"), clusterSetup.count("catalog-2013"));
+            assertEquals(2, clusterSetup.client().admin().cluster().prepareHealth().get().getNumberOfDataNodes());
+        } finally {
+            clusterSetup.terminate();
+        }
+    }
+
+    @Test
+    public void testStartedEmbeddedCluster() {
+        EsSetup clusterSetup = new EsSetup(new EmbeddedCluster("es-setup-started-cluster").start());
+        try {
+            clusterSetup.execute(createIndex("started-cluster"));
+            assertTrue(clusterSetup.exists("started-cluster"));
+        } finally {
+            clusterSetup.terminate();
+        }
+    }
+
     @After
     public void tearDown() throws Exception {
         esSetup.terminate();
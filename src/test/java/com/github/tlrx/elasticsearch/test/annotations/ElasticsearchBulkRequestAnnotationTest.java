@@ -1,14 +1,17 @@
 package com.github.tlrx.elasticsearch.test.annotations;
 
 import com.github.tlrx.elasticsearch.test.support.junit.runners.ElasticsearchRunner;
+import org.elasticsearch.action.admin.indices.stats.IndexShardStats;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test class for {@link ElasticsearchBulkRequest} annotation.
@@ -49,4 +52,73 @@ public class ElasticsearchBulkRequestAnnotationTest {
                 .actionGet();
         assertEquals(9, countResponse.getHits().getTotalHits());
     }
+
+    @Test
+    @ElasticsearchIndex(indexName = "documents", forceCreate = true)
+    @ElasticsearchBulkRequest(dataFile = "com/github/tlrx/elasticsearch/test/annotations/documents/bulk1.json",
+            bulkActions = 2, concurrentRequests = 3, flushInterval = "1s", backoffDelay = "10ms", backoffRetries = 3)
+    public void testElasticsearchBulkRequestConcurrent() {
+        // Count number of documents
+        SearchResponse countResponse = client.prepareSearch("documents")
+                .setSource(new SearchSourceBuilder().size(0))
+                .setTypes("doc1")
+                .execute()
+                .actionGet();
+        assertEquals(6, countResponse.getHits().getTotalHits());
+    }
+
+    @Test
+    @ElasticsearchIndex(indexName = "documents", forceCreate = true)
+    @ElasticsearchBulkRequest(dataFile = "com/github/tlrx/elasticsearch/test/annotations/documents/bulk1.json.gz")
+    public void testElasticsearchBulkRequestCompressed() {
+        // Count number of documents
+        SearchResponse countResponse = client.prepareSearch("documents")
+                .setSource(new SearchSourceBuilder().size(0))
+                .setTypes("doc1")
+                .execute()
+                .actionGet();
+        assertEquals(6, countResponse.getHits().getTotalHits());
+    }
+
+    @Test
+    @ElasticsearchIndex(indexName = "documents", forceCreate = true)
+    @ElasticsearchBulkRequest(dataFile = "com/github/tlrx/elasticsearch/test/annotations/documents/bulk1.smile",
+            contentType = XContentType.SMILE)
+    public void testElasticsearchBulkRequestSmile() {
+        // Count number of documents
+        SearchResponse countResponse = client.prepareSearch("documents")
+                .setSource(new SearchSourceBuilder().size(0))
+                .setTypes("doc1")
+                .execute()
+                .actionGet();
+        assertEquals(6, countResponse.getHits().getTotalHits());
+    }
+
+    @Test
+    @ElasticsearchIndex(indexName = "documents", forceCreate = true)
+    @ElasticsearchBulkRequest(dataFile = "com/github/tlrx/elasticsearch/test/annotations/documents/bulk1.json",
+            bulkActions = 1, forceMergeSegments = 1)
+    public void testElasticsearchBulkRequestForceMerge() {
+        assertForceMerged();
+    }
+
+    @Test
+    @ElasticsearchIndex(indexName = "documents", forceCreate = true, forceMergeSegments = 1)
+    @ElasticsearchBulkRequest(dataFile = "com/github/tlrx/elasticsearch/test/annotations/documents/bulk1.json",
+            bulkActions = 1)
+    public void testElasticsearchIndexForceMerge() {
+        assertForceMerged();
+    }
+
+    /**
+     * Checks that each shard of the index has at most one segment
+     */
+    private void assertForceMerged() {
+        IndexShardStats[] shards = client.admin().indices().prepareStats("documents").setSegments(true).get()
+                .getIndex("documents").getIndexShards().values().toArray(new IndexShardStats[0]);
+        for (IndexShardStats shard : shards) {
+            assertTrue(shard.getPrimary().getSegments().getCount() <= 1);
+        }
+        assertEquals(6, client.prepareSearch("documents").setSize(0).get().getHits().getTotalHits());
+    }
 }
@@ -0,0 +1,60 @@
+package com.github.tlrx.elasticsearch.test.annotations;
+
+import com.github.tlrx.elasticsearch.test.node.EmbeddedCluster;
+import com.github.tlrx.elasticsearch.test.support.junit.runners.ElasticsearchRunner;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link ElasticsearchCluster} annotation.
+ *
+ * @author tlrx
+ */
+@RunWith(ElasticsearchRunner.class)
+@ElasticsearchCluster(name = "multi-node-cluster", dataNodes = 2, coordinatingNodes = 1)
+public class ElasticsearchClusterAnnotationTest {
+
+    @ElasticsearchCluster(name = "multi-node-cluster")
+    EmbeddedCluster cluster;
+
+    @ElasticsearchCluster(name = "multi-node-cluster")
+    Client client;
+
+    @ElasticsearchClient(nodeName = "multi-node-cluster-coordinating-0")
+    Client coordinatingClient;
+
+    @Test
+    public void testClusterNodes() {
+        assertNotNull(cluster);
+        assertEquals(3, cluster.nodes().size());
+        assertEquals(3, cluster.clients().size());
+
+        NodesInfoResponse nodesInfo = coordinatingClient.admin().cluster().prepareNodesInfo().get();
+        assertEquals(3, nodesInfo.getNodes().size());
+    }
+
+    @Test
+    @ElasticsearchIndex(indexName = "replicated", nodeName = "multi-node-cluster-data-0",
+            settings = {@ElasticsearchSetting(name = "index.number_of_shards", value = "2"),
+                    @ElasticsearchSetting(name = "index.number_of_replicas", value = "1")})
+    public void testReplicasAreAllocated() {
+        ClusterHealthResponse health = client.admin().cluster().prepareHealth("replicated")
+                .setWaitForGreenStatus()
+                .get();
+        assertEquals(ClusterHealthStatus.GREEN, health.getStatus());
+        assertEquals(4, health.getActiveShards());
+
+        // Requests are spread over all the nodes
+        for (int i = 0; i < 6; i++) {
+            client.prepareIndex("replicated", "doc", String.valueOf(i)).setSource("value", i).get();
+        }
+        client.admin().indices().prepareRefresh("replicated").get();
+        assertEquals(6, client.prepareSearch("replicated").setSize(0).get().getHits().getTotalHits());
+    }
+}
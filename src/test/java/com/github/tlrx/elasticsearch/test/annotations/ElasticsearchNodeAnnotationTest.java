@@ -1,5 +1,6 @@
 package com.github.tlrx.elasticsearch.test.annotations;
 
+import com.github.tlrx.elasticsearch.test.node.NodeDirectories;
 import com.github.tlrx.elasticsearch.test.support.junit.runners.ElasticsearchRunner;
 import org.elasticsearch.node.Node;
 import org.junit.Test;
@@ -49,9 +50,9 @@ public class ElasticsearchNodeAnnotationTest {
     public void testElasticsearchNodes() {
         assertNotNull(node0);
         assertEquals("elasticsearch-test-node", node0.settings().get(NODE_NAME));
-        assertEquals("elasticsearch-test-cluster", node0.settings().get(CLUSTER_NAME));
+        assertEquals("elasticsearch-test-cluster-" + NodeDirectories.forkId(), node0.settings().get(CLUSTER_NAME));
         assertEquals(ElasticsearchNode.DEFAULT_NODE_NAME, node0.settings().get(NODE_NAME));
-        assertEquals(ElasticsearchNode.DEFAULT_CLUSTER_NAME, node0.settings().get(CLUSTER_NAME));
+        assertEquals(ElasticsearchNode.DEFAULT_CLUSTER_NAME + "-" + NodeDirectories.forkId(), node0.settings().get(CLUSTER_NAME));
         assertTrue(node0.settings().getAsBoolean(NODE_LOCAL, null));
         assertTrue(node0.settings().getAsBoolean(NODE_DATA, null));
         // This node will have default configuration file: /config/elasticsearch.yml
@@ -0,0 +1,38 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link AsyncDirectoryDeleter}
+ */
+public class AsyncDirectoryDeleterTest {
+
+    @Test
+    public void testDirectoryIsRenamedThenDeleted() throws Exception {
+        AsyncDirectoryDeleter deleter = AsyncDirectoryDeleter.getInstance();
+        NodeDirectories directories = NodeDirectories.allocate("deleter-node");
+        Path parent = directories.home().getParent();
+        Files.createDirectories(directories.data().resolve("nodes"));
+        Files.write(directories.data().resolve("nodes").resolve("file"), new byte[1024]);
+
+        long files = deleter.stats().getFiles();
+        long bytes = deleter.stats().getBytes();
+        deleter.delete(directories.home());
+        assertFalse(Files.exists(directories.home()));
+
+        deleter.drain(TimeValue.timeValueSeconds(10));
+        assertEquals(files + 1, deleter.stats().getFiles());
+        assertEquals(bytes + 1024, deleter.stats().getBytes());
+        assertEquals(0, deleter.stats().getPending());
+        try (Stream<Path> children = Files.list(parent)) {
+            assertFalse(children.anyMatch(p -> p.getFileName().toString().startsWith(AsyncDirectoryDeleter.TOMBSTONE_PREFIX)));
+        }
+    }
+}
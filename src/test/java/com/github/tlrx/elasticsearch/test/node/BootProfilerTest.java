@@ -0,0 +1,32 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link BootProfiler}
+ */
+public class BootProfilerTest {
+
+    @Test
+    public void testPhasesAreRecordedAndAggregated() throws Exception {
+        BootProfiler profiler = new BootProfiler();
+
+        BootProfiler.Profile profile = profiler.start("profiled-node");
+        Thread.sleep(5);
+        profile.end(BootProfiler.Phase.PREPARE_SETTINGS);
+        profile.end(BootProfiler.Phase.CONSTRUCT);
+        profile.complete();
+        profiler.record(BootProfiler.Phase.WAIT_FOR_READY, 1000000L);
+
+        assertTrue(profile.total() >= 5000000L);
+        assertTrue(profile.toString().startsWith("[prepare_settings="));
+
+        String json = profiler.toJson();
+        assertTrue(json.contains("\"boots\" : 1"));
+        assertTrue(json.contains("\"prepare_settings\""));
+        assertTrue(json.contains("\"wait_for_ready\""));
+        assertTrue(json.contains("\"node\" : \"profiled-node\""));
+    }
+}
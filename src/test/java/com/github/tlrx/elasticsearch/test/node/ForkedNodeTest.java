@@ -0,0 +1,55 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.createIndex;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link ForkedNode}
+ */
+public class ForkedNodeTest {
+
+    private long pid(EsSetup esSetup) {
+        NodesInfoResponse response = esSetup.client().admin().cluster().prepareNodesInfo().setProcess(true).get();
+        assertEquals(1, response.getNodes().size());
+        return response.getNodes().get(0).getProcess().getId();
+    }
+
+    @Test
+    public void testNodeRunsInChildJvmAndIsReused() {
+        long currentPid = Long.parseLong(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+
+        EsSetup esSetup = new EsSetup(new ForkedNode("forked-node").withJvmArgs("-Xmx256m"));
+        esSetup.execute(createIndex("forked-index"));
+        long pid = pid(esSetup);
+        assertNotEquals(currentPid, pid);
+        assertTrue(esSetup.exists("forked-index"));
+        esSetup.terminate();
+
+        // Same configuration, same child JVM without the indices
+        esSetup = new EsSetup(new ForkedNode("forked-node").withJvmArgs("-Xmx256m"));
+        try {
+            esSetup.execute(createIndex("other-index"));
+            assertEquals(pid, pid(esSetup));
+            assertFalse(esSetup.exists("forked-index"));
+        } finally {
+            esSetup.terminate();
+        }
+    }
+
+    @Test
+    public void testStartedNode() {
+        EsSetup esSetup = new EsSetup(new ForkedNode("forked-node").withJvmArgs("-Xmx256m").start());
+        try {
+            esSetup.execute(createIndex("started-index"));
+            assertTrue(esSetup.exists("started-index"));
+        } finally {
+            esSetup.terminate();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.transport.Netty4Plugin;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link LazyNode}
+ */
+public class LazyNodeTest {
+
+    private LazyNode lazyNode(String nodeName) {
+        Settings settings = Settings.builder()
+                .put("node.name", nodeName)
+                .put("cluster.name", "lazy-node-test")
+                .put("transport.type", "netty4")
+                .put("http.enabled", false)
+                .build();
+        return new LazyNode(settings, singletonList(Netty4Plugin.class), StorageMode.DISK);
+    }
+
+    @Test
+    public void testClientStartsNodeOnFirstUse() {
+        LazyNode lazyNode = lazyNode("lazy-node");
+        try {
+            Client client = lazyNode.client();
+            assertNotNull(client.toString());
+            assertFalse(lazyNode.isStarted());
+
+            client.admin().cluster().prepareHealth().setWaitForYellowStatus().get();
+            assertTrue(lazyNode.isStarted());
+            assertFalse(lazyNode.node().isClosed());
+        } finally {
+            lazyNode.release();
+        }
+    }
+
+    @Test
+    public void testWarmUpStartsNodeInBackground() {
+        LazyNode lazyNode = lazyNode("lazy-warm-node");
+        try {
+            lazyNode.warmUp();
+            assertTrue(lazyNode.isStarted());
+            assertFalse(lazyNode.node().isClosed());
+        } finally {
+            lazyNode.release();
+        }
+    }
+
+    @Test
+    public void testClientFailsAfterRelease() {
+        LazyNode lazyNode = lazyNode("lazy-released-node");
+        Client client = lazyNode.client();
+        client.admin().cluster().prepareHealth().setWaitForYellowStatus().get();
+        lazyNode.release();
+
+        try {
+            client.admin().cluster().prepareHealth().get();
+            fail("A released node must not be started again");
+        } catch (IllegalStateException e) {
+            assertFalse(lazyNode.isStarted());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link NodeDirectories}
+ */
+public class NodeDirectoriesTest {
+
+    @Test
+    public void testNodesGetTheirOwnDirectories() throws Exception {
+        NodeDirectories first = NodeDirectories.allocate("node/1");
+        NodeDirectories second = NodeDirectories.allocate("node/1");
+
+        assertNotEquals(first.home(), second.home());
+        assertEquals(first.home().getParent(), second.home().getParent());
+        assertTrue(first.home().getParent().getFileName().toString().endsWith(NodeDirectories.forkId()));
+
+        Settings settings = first.applyTo(Settings.builder()).build();
+        assertEquals(first.home().toString(), settings.get("path.home"));
+        assertEquals(first.data().toString(), settings.get("path.data"));
+        assertEquals(first.logs().toString(), settings.get("path.logs"));
+
+        Files.createDirectories(first.data().resolve("nodes"));
+        first.delete();
+        assertFalse(Files.exists(first.home()));
+        assertTrue(Files.exists(second.home()));
+        second.delete();
+    }
+
+    @Test
+    public void testSweepDeletesOnlyUnlockedForks() throws Exception {
+        Path base = Files.createTempDirectory("node-directories");
+        Path current = Files.createDirectories(base.resolve("fork-current"));
+        Path live = base.resolve("fork-live");
+        Path stale = Files.createDirectories(base.resolve("fork-stale"));
+        try (FileChannel channel = FileChannel.open(NodeDirectories.lockFile(live), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.lock();
+            Files.createDirectories(live);
+
+            NodeDirectories.sweep(base, current);
+            AsyncDirectoryDeleter.getInstance().drain(TimeValue.timeValueSeconds(10));
+
+            assertTrue(Files.exists(live));
+            assertFalse(Files.exists(stale));
+            assertFalse(Files.exists(NodeDirectories.lockFile(stale)));
+        } finally {
+            NodeDirectories.deleteRecursively(base);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.createIndex;
+import static com.github.tlrx.elasticsearch.test.EsSetup.createTemplate;
+import static com.github.tlrx.elasticsearch.test.EsSetup.deleteAll;
+import static com.github.tlrx.elasticsearch.test.EsSetup.deleteTemplates;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link NodeProfile}
+ */
+public class NodeProfileTest {
+
+    EsSetup esSetup;
+
+    @Before
+    public void setUp() throws Exception {
+        esSetup = new EsSetup(NodeProfile.FAST);
+        esSetup.execute(deleteAll());
+    }
+
+    @Test
+    public void testFastProfileIndexDefaults() {
+        esSetup.execute(createIndex("fast-index"));
+
+        Settings settings = esSetup.client().admin().indices().prepareGetSettings("fast-index").get()
+                .getIndexToSettings().get("fast-index");
+        assertEquals("1", settings.get("index.number_of_shards"));
+        assertEquals("0", settings.get("index.number_of_replicas"));
+        assertEquals("async", settings.get("index.translog.durability"));
+    }
+
+    @Test
+    public void testIndexDefaultsKeptByTemplateDeletes() {
+        esSetup.execute(createTemplate("fast-template").withTemplate("fast-*"), deleteTemplates("*"), deleteTemplates());
+        assertFalse(esSetup.client().admin().indices().prepareGetTemplates("fast-template").get()
+                .getIndexTemplates().stream().anyMatch(template -> template.getName().equals("fast-template")));
+
+        esSetup.execute(createIndex("fast-index"));
+        Settings settings = esSetup.client().admin().indices().prepareGetSettings("fast-index").get()
+                .getIndexToSettings().get("fast-index");
+        assertEquals("1", settings.get("index.number_of_shards"));
+        assertEquals("0", settings.get("index.number_of_replicas"));
+    }
+
+    @Test
+    public void testFastProfileNodeSettings() {
+        NodesInfoResponse response = esSetup.client().admin().cluster().prepareNodesInfo().get();
+        assertEquals(1, response.getNodes().size());
+
+        Settings settings = response.getNodes().get(0).getSettings();
+        assertEquals("false", settings.get("http.enabled"));
+        assertEquals("false", settings.get("cluster.routing.allocation.disk.threshold_enabled"));
+    }
+
+    @Test
+    public void testDefaultProfile() {
+        String previous = System.setProperty(NodeProfile.PROFILE_PROPERTY, "fast");
+        try {
+            assertEquals(NodeProfile.FAST, NodeProfile.defaultProfile());
+        } finally {
+            System.clearProperty(NodeProfile.PROFILE_PROPERTY);
+            if (previous != null) {
+                System.setProperty(NodeProfile.PROFILE_PROPERTY, previous);
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownDefaultProfile() {
+        String previous = System.setProperty(NodeProfile.PROFILE_PROPERTY, "fastest");
+        try {
+            NodeProfile.defaultProfile();
+            fail("An unknown profile must be rejected");
+        } catch (EsSetupRuntimeException e) {
+            assertTrue(e.getMessage().contains(NodeProfile.PROFILE_PROPERTY));
+            assertTrue(e.getMessage().contains("[DEFAULT, FAST]"));
+        } finally {
+            System.clearProperty(NodeProfile.PROFILE_PROPERTY);
+            if (previous != null) {
+                System.setProperty(NodeProfile.PROFILE_PROPERTY, previous);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        esSetup.terminate();
+    }
+}
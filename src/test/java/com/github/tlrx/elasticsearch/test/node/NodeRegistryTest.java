@@ -0,0 +1,76 @@
+package com.github.tlrx.elasticsearch.test.node;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.transport.Netty4Plugin;
+import org.junit.Test;
+
+import java.util.Collection;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link NodeRegistry}
+ */
+public class NodeRegistryTest {
+
+    private static final Collection<Class<? extends Plugin>> PLUGINS = singletonList(Netty4Plugin.class);
+
+    private Settings settings(String nodeName) {
+        return Settings.builder()
+                .put("node.name", nodeName)
+                .put("cluster.name", "node-registry-test")
+                .put("transport.type", "netty4")
+                .put("http.enabled", false)
+                .build();
+    }
+
+    @Test
+    public void testLeasesShareTheSameNode() {
+        NodeRegistry registry = NodeRegistry.getInstance();
+
+        NodeLease lease1 = registry.acquire(settings("registry-node"), PLUGINS);
+        long boots = registry.stats().getBoots();
+        NodeLease lease2 = registry.acquire(settings("registry-node"), PLUGINS);
+        try {
+            assertSame(lease1.node(), lease2.node());
+            assertEquals(boots, registry.stats().getBoots());
+        } finally {
+            lease1.release();
+            lease2.release();
+        }
+    }
+
+    @Test
+    public void testReleasedNodeIsResetOnNextLease() {
+        NodeRegistry registry = NodeRegistry.getInstance();
+
+        NodeLease lease = registry.acquire(settings("registry-node"), PLUGINS);
+        lease.client().admin().indices().prepareCreate("registry-index").get();
+        lease.release();
+        lease.release();
+
+        long reuses = registry.stats().getReuses();
+        lease = registry.acquire(settings("registry-node"), PLUGINS);
+        try {
+            assertFalse(lease.client().admin().indices().prepareExists("registry-index").get().isExists());
+            assertEquals(reuses + 1, registry.stats().getReuses());
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Test
+    public void testMemoryStorageAppliesThrowawayIndexSettings() {
+        NodeLease lease = NodeRegistry.getInstance().acquire(settings("registry-memory-node"), PLUGINS, StorageMode.MEMORY);
+        try {
+            lease.client().admin().indices().prepareCreate("registry-memory-index").get();
+            Settings indexSettings = lease.client().admin().indices().prepareGetSettings("registry-memory-index").get()
+                    .getIndexToSettings().get("registry-memory-index");
+            assertEquals("async", indexSettings.get("index.translog.durability"));
+        } finally {
+            lease.release();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.node.NodeLease;
+import com.github.tlrx.elasticsearch.test.node.NodeRegistry;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.transport.Netty4Plugin;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link ClusterReadiness}
+ */
+public class ClusterReadinessTest {
+
+    @Test
+    public void testNodeReadinessFollowsClusterState() {
+        Settings settings = Settings.builder()
+                .put("node.name", "readiness-node")
+                .put("cluster.name", "cluster-readiness-test")
+                .put("transport.type", "netty4")
+                .put("http.enabled", false)
+                .build();
+        NodeLease lease = NodeRegistry.getInstance().acquire(settings, singletonList(Netty4Plugin.class));
+        ClusterReadiness readiness = ClusterReadiness.of(lease.node());
+        try {
+            readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
+
+            // Index with an unassignable primary: the cluster is red until the index is deleted
+            lease.client().admin().indices().prepareCreate("readiness-index")
+                    .setSettings(Settings.builder().put("index.routing.allocation.require._name", "unknown"))
+                    .setWaitForActiveShards(0)
+                    .get();
+            long start = System.currentTimeMillis();
+            readiness.awaitReady(TimeValue.timeValueMillis(200));
+            assertTrue(System.currentTimeMillis() - start >= 200);
+
+            lease.client().admin().indices().prepareDelete("readiness-index").get();
+            start = System.currentTimeMillis();
+            readiness.awaitReady(TimeValue.timeValueSeconds(10));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        } finally {
+            readiness.close();
+            lease.release();
+        }
+    }
+
+    @Test
+    public void testClientReadinessIsCachedUntilInvalidated() {
+        Settings settings = Settings.builder()
+                .put("node.name", "client-readiness-node")
+                .put("cluster.name", "cluster-client-readiness-test")
+                .put("transport.type", "netty4")
+                .put("http.enabled", false)
+                .build();
+        NodeLease lease = NodeRegistry.getInstance().acquire(settings, singletonList(Netty4Plugin.class));
+        ClusterReadiness readiness = ClusterReadiness.of(lease.client());
+        try {
+            readiness.awaitReady(ClusterReadiness.DEFAULT_TIMEOUT);
+
+            // Creating an index does not change the nodes, the cached readiness is kept
+            lease.client().admin().indices().prepareCreate("client-readiness-index")
+                    .setSettings(Settings.builder().put("index.routing.allocation.require._name", "unknown"))
+                    .setWaitForActiveShards(0)
+                    .get();
+            long start = System.currentTimeMillis();
+            readiness.awaitReady(TimeValue.timeValueSeconds(10));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+
+            // Once invalidated, the cluster is checked again
+            readiness.invalidate();
+            start = System.currentTimeMillis();
+            readiness.awaitReady(TimeValue.timeValueMillis(200));
+            assertTrue(System.currentTimeMillis() - start >= 200);
+        } finally {
+            lease.client().admin().indices().prepareDelete("client-readiness-index").get();
+            readiness.close();
+            lease.release();
+        }
+    }
+}
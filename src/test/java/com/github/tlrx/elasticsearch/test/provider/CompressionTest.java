@@ -0,0 +1,94 @@
+package com.github.tlrx.elasticsearch.test.provider;
+
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import org.elasticsearch.common.io.Streams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link Compression}
+ */
+public class CompressionTest {
+
+    private static final String JSON = "{\"index\":{\"_id\":\"1\"}}\n{\"name\":\"compressed\"}\n";
+
+    private byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] deflate(String content, boolean raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private String read(String name, byte[] content) throws IOException {
+        try (InputStream input = Compression.decompress(name, new ByteArrayInputStream(content))) {
+            return Streams.copyToString(new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        assertEquals(JSON, read("bulk.json", JSON.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("", read("empty.json", new byte[0]));
+    }
+
+    @Test
+    public void testDetectedByExtension() throws Exception {
+        assertEquals(JSON, read("bulk.json.gz", gzip(JSON)));
+        assertEquals(JSON, read("bulk.json.deflate", deflate(JSON, false)));
+        assertEquals(JSON, read("bulk.json.deflate", deflate(JSON, true)));
+    }
+
+    @Test
+    public void testDetectedByMagicBytes() throws Exception {
+        assertEquals(JSON, read("bulk.json", gzip(JSON)));
+        assertEquals(JSON, read("bulk.json", deflate(JSON, false)));
+    }
+
+    @Test
+    public void testDetectFile() throws Exception {
+        Path file = Files.createTempFile("compression", ".json");
+        try {
+            Files.write(file, JSON.getBytes(StandardCharsets.UTF_8));
+            assertEquals(Compression.NONE, Compression.detect(file));
+
+            Files.write(file, gzip(JSON));
+            assertEquals(Compression.GZIP, Compression.detect(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMissingLibrary() throws Exception {
+        byte[] lz4Frame = {0x04, 0x22, 0x4d, 0x18, 0x64, 0x40, (byte) 0xa7, 0x00, 0x00, 0x00, 0x00};
+        try {
+            read("bulk.json", lz4Frame);
+            fail("LZ4 content can not be read without lz4-java");
+        } catch (EsSetupRuntimeException e) {
+            assertTrue(e.getMessage().contains("org.lz4:lz4-java"));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.tlrx.elasticsearch.test.provider;
+
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link FixtureConverter}
+ */
+public class FixtureConverterTest {
+
+    private static final String BULK = "{\"index\":{\"_id\":\"1\"}}\n{\"name\":\"first\",\"tags\":[\"a\",\"b\"]}\n\n"
+            + "{\"delete\":{\"_id\":\"2\"}}\n";
+
+    private Map<String, Object> parse(XContentType type, byte[] bytes) throws Exception {
+        try (XContentParser parser = type.xContent().createParser(NamedXContentRegistry.EMPTY, bytes)) {
+            return parser.map();
+        }
+    }
+
+    @Test
+    public void testConvertBulkToSmile() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long lines = FixtureConverter.convertBulk(new ByteArrayInputStream(BULK.getBytes(StandardCharsets.UTF_8)),
+                output, XContentType.SMILE);
+        assertEquals(3, lines);
+
+        byte[] bytes = output.toByteArray();
+        assertEquals(XContentType.SMILE.xContent().streamSeparator(), bytes[bytes.length - 1]);
+
+        // Each line is a SMILE document followed by the separator
+        int separator = 0;
+        while (bytes[separator] != XContentType.SMILE.xContent().streamSeparator()) {
+            separator++;
+        }
+        Map<String, Object> action = parse(XContentType.SMILE, Arrays.copyOf(bytes, separator));
+        assertEquals("1", ((Map<?, ?>) action.get("index")).get("_id"));
+    }
+
+    @Test
+    public void testConvertDocumentToCbor() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FixtureConverter.convertDocument(new ByteArrayInputStream("{\"name\":\"cbor\",\"count\":3}".getBytes(StandardCharsets.UTF_8)),
+                output, XContentType.CBOR);
+
+        Map<String, Object> document = parse(XContentType.CBOR, output.toByteArray());
+        assertEquals("cbor", document.get("name"));
+        assertEquals(3, document.get("count"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertBulkToCbor() throws Exception {
+        FixtureConverter.convertBulk(new ByteArrayInputStream(BULK.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayOutputStream(), XContentType.CBOR);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.tlrx.elasticsearch.test.provider;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link JSONProvider}
+ */
+public class JSONProviderTest {
+
+    @Test
+    public void testStringProviderAdapter() throws Exception {
+        JSONProvider provider = () -> "{\"name\":\"café\"}";
+
+        assertEquals(provider.toJson(), provider.toBytes().utf8ToString());
+        assertEquals(provider.toJson(), Streams.copyToString(new InputStreamReader(provider.openStream(), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testClassPathProviderBytes() throws Exception {
+        JSONProvider provider = new ClassPathJSONProvider(getClass().getClassLoader(),
+                "com/github/tlrx/elasticsearch/test/mappings/product.json");
+
+        assertArrayEquals(provider.toJson().getBytes(StandardCharsets.UTF_8), BytesReference.toBytes(provider.toBytes()));
+    }
+
+    @Test
+    public void testFileProvider() throws Exception {
+        Path file = Files.createTempFile("json-provider", ".json");
+        try {
+            Files.write(file, "{\"name\":\"café\"}".getBytes(StandardCharsets.UTF_8));
+            FileJSONProvider provider = new FileJSONProvider(file);
+
+            assertEquals("{\"name\":\"café\"}", provider.toJson());
+            assertEquals(provider.toJson(), provider.toBytes().utf8ToString());
+            assertEquals("name", provider.toBytes().slice(2, 4).utf8ToString());
+            assertEquals(file, provider.toPath());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testClassPathProviderInJar() throws Exception {
+        Path jar = Files.createTempFile("json-provider", ".jar");
+        try {
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+                out.putNextEntry(new JarEntry("data/bulk.json"));
+                out.write("{\"index\":{}}\n{\"name\":\"jar\"}\n".getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+                ClassPathJSONProvider provider = new ClassPathJSONProvider(classLoader, "data/bulk.json");
+
+                Path extracted = provider.toPath();
+                assertEquals(provider.toJson(), new String(Files.readAllBytes(extracted), StandardCharsets.UTF_8));
+                assertEquals(extracted, provider.toPath());
+            }
+        } finally {
+            Files.delete(jar);
+        }
+    }
+}
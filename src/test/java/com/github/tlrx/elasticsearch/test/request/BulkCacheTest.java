@@ -0,0 +1,108 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import com.github.tlrx.elasticsearch.test.provider.JSONProvider;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.createIndex;
+import static com.github.tlrx.elasticsearch.test.EsSetup.deleteAll;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link BulkCache}
+ */
+public class BulkCacheTest {
+
+    EsSetup esSetup;
+    Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        esSetup = new EsSetup();
+        esSetup.execute(deleteAll(), createIndex("bulk-cache"));
+        directory = Files.createTempDirectory("bulk-cache");
+    }
+
+    private JSONProvider documents(int count, String name) {
+        return () -> {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                builder.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n")
+                        .append("{\"name\":\"").append(name).append(" ").append(i).append("\"}\n");
+            }
+            return builder.toString();
+        };
+    }
+
+    private BulkLoader.Stats load(BulkCache cache, JSONProvider data) throws Exception {
+        return new BulkLoader(esSetup.client())
+                .withDefaults("bulk-cache", "doc")
+                .withBulkActions(50)
+                .withCache(cache)
+                .load(data);
+    }
+
+    private long entries() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".bulk")).count();
+        }
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        BulkCache cache = new BulkCache(directory, BulkCache.DEFAULT_SIZE);
+
+        assertEquals(120, load(cache, documents(120, "document")).getActions());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, entries());
+
+        esSetup.execute(deleteAll(), createIndex("bulk-cache"));
+        BulkLoader.Stats stats = load(cache, documents(120, "document"));
+        assertEquals(120, stats.getActions());
+        assertEquals(3, stats.getBulks());
+        assertEquals(1, cache.getHits());
+        assertEquals(120L, esSetup.countAll().longValue());
+
+        // Other data, other entry
+        load(cache, documents(120, "other"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, entries());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        load(new BulkCache(directory, BulkCache.DEFAULT_SIZE), documents(100, "first"));
+        long entrySize;
+        try (Stream<Path> files = Files.list(directory)) {
+            entrySize = Files.size(files.findFirst().get());
+        }
+
+        // Room for one entry only, the least recently used one is evicted
+        BulkCache cache = new BulkCache(directory, new ByteSizeValue(entrySize * 3 / 2));
+        Thread.sleep(1000);
+        load(cache, documents(100, "second"));
+        assertEquals(1, entries());
+
+        load(cache, documents(100, "second"));
+        assertEquals(1, cache.getHits());
+        load(cache, documents(100, "first"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        esSetup.terminate();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.delete(directory);
+    }
+}
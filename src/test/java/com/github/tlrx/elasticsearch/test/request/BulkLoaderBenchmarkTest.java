@@ -0,0 +1,78 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import com.github.tlrx.elasticsearch.test.node.NodeProfile;
+import com.github.tlrx.elasticsearch.test.provider.FixtureConverter;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.createIndex;
+import static com.github.tlrx.elasticsearch.test.EsSetup.deleteAll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmark of {@link BulkLoader} comparing JSON and SMILE bulk data, run with -Delasticsearch.test.benchmark=true
+ */
+public class BulkLoaderBenchmarkTest {
+
+    private static final int DOCUMENTS = 50000;
+    private static final int ROUNDS = 3;
+
+    EsSetup esSetup;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("elasticsearch.test.benchmark"));
+        esSetup = new EsSetup(NodeProfile.FAST);
+    }
+
+    private byte[] documents() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            builder.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"name\":\"product ").append(i).append("\",\"price\":").append(i % 1000).append(".99")
+                    .append(",\"quantity\":").append(i % 50)
+                    .append(",\"tags\":[\"tag").append(i % 10).append("\",\"tag").append(i % 7).append("\"]")
+                    .append(",\"available\":").append(i % 2 == 0)
+                    .append(",\"description\":\"description of the product number ").append(i).append("\"}\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private BulkLoader.Stats load(byte[] data, XContentType contentType) throws Exception {
+        esSetup.execute(deleteAll(), createIndex("benchmark"));
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("benchmark", "product")
+                .withContentType(contentType)
+                .load(new ByteArrayInputStream(data));
+        assertEquals(DOCUMENTS, esSetup.count("benchmark").longValue());
+        return stats;
+    }
+
+    @Test
+    public void benchmarkJsonAndSmile() throws Exception {
+        byte[] json = documents();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FixtureConverter.convertBulk(new ByteArrayInputStream(json), output, XContentType.SMILE);
+        byte[] smile = output.toByteArray();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("JSON  " + load(json, XContentType.JSON));
+            System.out.println("SMILE " + load(smile, XContentType.SMILE));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (esSetup != null) {
+            esSetup.terminate();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import com.github.tlrx.elasticsearch.test.EsSetupRuntimeException;
+import com.github.tlrx.elasticsearch.test.provider.ClassPathJSONProvider;
+import com.github.tlrx.elasticsearch.test.provider.FixtureConverter;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.createIndex;
+import static com.github.tlrx.elasticsearch.test.EsSetup.deleteAll;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for {@link BulkLoader}
+ */
+public class BulkLoaderTest {
+
+    EsSetup esSetup;
+
+    @Before
+    public void setUp() throws Exception {
+        esSetup = new EsSetup();
+        esSetup.execute(deleteAll(), createIndex("bulk-loader"));
+    }
+
+    private InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String documents(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\r\n")
+                    .append("{\"name\":\"document ").append(i).append("\"}\n");
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testLoadInChunks() throws Exception {
+        String data = documents(250) + "\n{\"delete\":{\"_id\":\"0\"}}\n{\"index\":{\"_id\":\"250\"}}\n{\"name\":\"last\"}";
+
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .withBulkActions(100)
+                .load(stream(data));
+
+        assertEquals(252, stats.getActions());
+        assertEquals(3, stats.getBulks());
+        assertEquals(250L, esSetup.countAll().longValue());
+    }
+
+    @Test
+    public void testLoadLimitedBySize() throws Exception {
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .withBulkSize(new ByteSizeValue(1, ByteSizeUnit.KB))
+                .load(stream(documents(100)));
+
+        assertEquals(100, stats.getActions());
+        assertTrue(stats.getBulks() > 1);
+        assertEquals(100L, esSetup.countAll().longValue());
+    }
+
+    @Test
+    public void testLoadConcurrently() throws Exception {
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .withBulkActions(10)
+                .withConcurrentRequests(4)
+                .load(stream(documents(500)));
+
+        assertEquals(500, stats.getActions());
+        assertEquals(50, stats.getBulks());
+        assertEquals(500L, esSetup.countAll().longValue());
+    }
+
+    @Test
+    public void testItemFailure() throws Exception {
+        String data = "{\"create\":{\"_id\":\"1\"}}\n{\"name\":\"first\"}\n"
+                + "{\"create\":{\"_id\":\"1\"}}\n{\"name\":\"duplicate\"}\n";
+        try {
+            new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .load(stream(data));
+            fail("Duplicate document must fail the load");
+        } catch (EsSetupRuntimeException e) {
+            assertTrue(e.getMessage().contains("version conflict"));
+        }
+    }
+
+    @Test(expected = EsSetupRuntimeException.class)
+    public void testActionWithoutSource() throws Exception {
+        new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .load(stream("{\"index\":{\"_id\":\"1\"}}\n"));
+    }
+
+    @Test
+    public void testLoadMappedFile() throws Exception {
+        String data = documents(250) + "\n{\"delete\":{\"_id\":\"0\"}}\n{\"index\":{\"_id\":\"250\"}}\n{\"name\":\"last\"}";
+        Path file = Files.createTempFile("bulk-loader", ".json");
+        try {
+            Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+
+            BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withBulkActions(100)
+                    .load(file);
+
+            assertEquals(252, stats.getActions());
+            assertEquals(3, stats.getBulks());
+            assertEquals(250L, esSetup.countAll().longValue());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadMappedFileEndingWithDelete() throws Exception {
+        Path file = Files.createTempFile("bulk-loader", ".json");
+        try {
+            Files.write(file, (documents(4) + "{\"delete\":{\"_id\":\"0\"}}").getBytes(StandardCharsets.UTF_8));
+
+            BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withBulkActions(2)
+                    .load(file);
+
+            assertEquals(5, stats.getActions());
+            assertEquals(3L, esSetup.countAll().longValue());
+            assertEquals(1L, esSetup.client().prepareGet("bulk-loader", "doc", "3").get().getVersion());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBlankLineBeforeSource() throws Exception {
+        String data = "{\"index\":{\"_id\":\"a\"}}\n\n{\"name\":\"a\"}\n" + documents(3)
+                + "{\"index\":{\"_id\":\"b\"}}\n\r\n{\"name\":\"b\"}";
+        Path file = Files.createTempFile("bulk-loader", ".json");
+        try {
+            Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+
+            BulkLoader.Stats mapped = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .load(file);
+            assertEquals(5, mapped.getActions());
+            assertEquals(5L, esSetup.countAll().longValue());
+
+            esSetup.execute(deleteAll(), createIndex("bulk-loader"));
+            BulkLoader.Stats streamed = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .load(stream(data));
+            assertEquals(5, streamed.getActions());
+            assertEquals(5L, esSetup.countAll().longValue());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadMappedFileByRegions() throws Exception {
+        Path file = Files.createTempFile("bulk-loader", ".json");
+        try {
+            Files.write(file, documents(500).getBytes(StandardCharsets.UTF_8));
+
+            BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withBulkSize(new ByteSizeValue(2, ByteSizeUnit.KB))
+                    .withMappingSize(1000)
+                    .load(file);
+
+            assertEquals(500, stats.getActions());
+            assertEquals(500L, esSetup.countAll().longValue());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadCompressedFile() throws Exception {
+        Path file = Files.createTempFile("bulk-loader", ".json.gz");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+                out.write(documents(300).getBytes(StandardCharsets.UTF_8));
+            }
+
+            BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withBulkActions(100)
+                    .load(EsSetup.fromFile(file));
+
+            assertEquals(300, stats.getActions());
+            assertEquals(3, stats.getBulks());
+            assertEquals(300L, esSetup.countAll().longValue());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadSmile() throws Exception {
+        String data = documents(150) + "{\"delete\":{\"_id\":\"0\"}}\n";
+        ByteArrayOutputStream smile = new ByteArrayOutputStream();
+        FixtureConverter.convertBulk(stream(data), smile, XContentType.SMILE);
+
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .withContentType(XContentType.SMILE)
+                .withBulkActions(100)
+                .load(new ByteArrayInputStream(smile.toByteArray()));
+        assertEquals(151, stats.getActions());
+        assertEquals(149L, esSetup.countAll().longValue());
+
+        Path file = Files.createTempFile("bulk-loader", ".smile");
+        try {
+            Files.write(file, smile.toByteArray());
+            esSetup.execute(deleteAll(), createIndex("bulk-loader"));
+
+            stats = new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withContentType(XContentType.SMILE)
+                    .withBulkActions(100)
+                    .load(file);
+            assertEquals(151, stats.getActions());
+            assertEquals(149L, esSetup.countAll().longValue());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadByShard() throws Exception {
+        esSetup.execute(createIndex("bulk-loader-shards")
+                .withSettings(Settings.builder().put("index.number_of_shards", 3).put("index.number_of_replicas", 0).build()));
+
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader-shards", "doc")
+                .withShardPartitioning(true)
+                .load(stream(documents(300) + "{\"index\":{}}\n{\"name\":\"generated id\"}\n"));
+
+        assertEquals(301, stats.getActions());
+        // One bulk request per shard, and one for the document without id
+        assertEquals(4, stats.getBulks());
+        assertEquals(301L, esSetup.count("bulk-loader-shards").longValue());
+    }
+
+    @Test
+    public void testOptimizedIndexing() throws Exception {
+        esSetup.execute(createIndex("bulk-loader-optimized")
+                .withSettings(Settings.builder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.number_of_replicas", 1)
+                        .put("index.refresh_interval", "5s")
+                        .build()));
+
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader-optimized", "doc")
+                .withBulkActions(50)
+                .withOptimizedIndexing(true)
+                .load(stream(documents(200)));
+        assertEquals(200, stats.getActions());
+        assertEquals(200L, esSetup.count("bulk-loader-optimized").longValue());
+
+        // Original settings restored, unset settings reset to their default
+        Settings settings = esSetup.client().admin().indices().prepareGetSettings("bulk-loader-optimized").get()
+                .getIndexToSettings().get("bulk-loader-optimized");
+        assertEquals("1", settings.get("index.number_of_replicas"));
+        assertEquals("5s", settings.get("index.refresh_interval"));
+        assertNull(settings.get("index.translog.durability"));
+    }
+
+    @Test
+    public void testLoadClassPathResourceWithoutLocalFile() throws Exception {
+        byte[] data = documents(10).getBytes(StandardCharsets.UTF_8);
+        URLStreamHandler handler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        return new ByteArrayInputStream(data);
+                    }
+                };
+            }
+        };
+        ClassLoader classLoader = new ClassLoader(null) {
+            @Override
+            protected URL findResource(String name) {
+                try {
+                    return new URL("vfs", null, -1, "/" + name, handler);
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        ClassPathJSONProvider provider = new ClassPathJSONProvider(classLoader, "data/bulk.json");
+        assertNull(provider.toPath());
+
+        BulkLoader.Stats stats = new BulkLoader(esSetup.client())
+                .withDefaults("bulk-loader", "doc")
+                .load(provider);
+
+        assertEquals(10, stats.getActions());
+        assertEquals(10L, esSetup.countAll().longValue());
+    }
+
+    @Test(expected = EsSetupRuntimeException.class)
+    public void testMappedActionLargerThanRegion() throws Exception {
+        Path file = Files.createTempFile("bulk-loader", ".json");
+        try {
+            Files.write(file, documents(10).getBytes(StandardCharsets.UTF_8));
+
+            new BulkLoader(esSetup.client())
+                    .withDefaults("bulk-loader", "doc")
+                    .withMappingSize(20)
+                    .load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        esSetup.terminate();
+    }
+}
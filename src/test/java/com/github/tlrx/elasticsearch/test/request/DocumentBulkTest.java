@@ -0,0 +1,41 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link DocumentBulk}
+ */
+public class DocumentBulkTest {
+
+    @Test
+    public void testCoalesce() {
+        Request create = createIndex("index");
+        Request first = index("index", "doc", "1").withSource("{}");
+        Request second = index("index", "doc", "2").withSource("{}");
+        Request delete = delete("index", "doc", "1");
+        Request count = new Count("index");
+        Request single = index("index", "doc", "3").withSource("{}");
+
+        List<Request<?>> requests = DocumentBulk.coalesce(create, first, second, delete, count, single);
+
+        assertEquals(4, requests.size());
+        assertSame(create, requests.get(0));
+        assertTrue(requests.get(1) instanceof DocumentBulk);
+        assertEquals(Arrays.asList(first, second, delete), ((DocumentBulk) requests.get(1)).getRequests());
+        assertSame(count, requests.get(2));
+        assertSame(single, requests.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyDocumentRequests() {
+        new DocumentBulk(Arrays.asList(index("index", "doc", "1"), createIndex("index")));
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for {@link ExecutionPlan}
+ */
+public class ExecutionPlanTest {
+
+    @Test
+    public void testDependencies() {
+        Request deleteAll = deleteAll();
+        Request deleteTemplates = deleteTemplates("other-template");
+        Request template = createTemplate("logs").withTemplate("logs-*");
+        Request logs = createIndex("logs-1");
+        Request other = createIndex("other");
+        Request logsDocument = index("logs-1", "doc", "1").withSource("{}");
+        Request otherDocument = index("other", "doc", "1").withSource("{}");
+        Request otherDocument2 = index("other", "doc", "2").withSource("{}");
+        Request otherDelete = delete("other", "doc", "1");
+        Request count = new Count("logs-1");
+        Request exists = new Exists("logs-1");
+        Request custom = client -> null;
+
+        ExecutionPlan plan = ExecutionPlan.of(deleteAll, deleteTemplates, template, logs, other, logsDocument,
+                otherDocument, otherDocument2, otherDelete, count, exists, custom);
+
+        assertEquals(Collections.emptyList(), plan.getDependencies(deleteAll));
+        assertEquals(Collections.emptyList(), plan.getDependencies(deleteTemplates));
+        assertEquals(Collections.emptyList(), plan.getDependencies(template));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, template), plan.getDependencies(logs));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates), plan.getDependencies(other));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, template, logs), plan.getDependencies(logsDocument));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, other), plan.getDependencies(otherDocument));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, other), plan.getDependencies(otherDocument2));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, other, otherDocument), plan.getDependencies(otherDelete));
+        assertEquals(Arrays.asList(deleteAll, logs, logsDocument), plan.getDependencies(count));
+        assertEquals(Arrays.asList(deleteAll, logs, logsDocument), plan.getDependencies(exists));
+        assertEquals(Arrays.asList(deleteAll, deleteTemplates, template, logs, other, logsDocument, otherDocument,
+                otherDocument2, otherDelete, count, exists), plan.getDependencies(custom));
+    }
+
+    @Test
+    public void testIndexWithDataIsABarrier() {
+        Request first = createIndex("first");
+        Request withData = createIndex("second").withData(() -> "{ \"index\" : { \"_index\" : \"first\", \"_type\" : \"doc\" } }\n{}\n");
+        Request third = createIndex("third");
+
+        ExecutionPlan plan = ExecutionPlan.of(first, withData, third);
+        assertEquals(Collections.singletonList(first), plan.getDependencies(withData));
+        assertEquals(Collections.singletonList(withData), plan.getDependencies(third));
+    }
+
+    @Test
+    public void testIndependent() {
+        Request create = createIndex("index");
+        Request document = index("index", "doc", "1").withSource("{}");
+
+        ExecutionPlan plan = ExecutionPlan.independent(create, document);
+        assertEquals(Collections.emptyList(), plan.getDependencies(document));
+    }
+
+    @Test
+    public void testTemplatePatternsFromSource() {
+        Request template = createTemplate("logs").withSource("{ \"index_patterns\" : [\"logs-*\"] }");
+        Request logs = createIndex("logs-1");
+        Request other = createIndex("other");
+
+        ExecutionPlan plan = ExecutionPlan.of(template, logs, other);
+        assertEquals(Collections.singletonList(template), plan.getDependencies(logs));
+        assertEquals(Collections.emptyList(), plan.getDependencies(other));
+    }
+}
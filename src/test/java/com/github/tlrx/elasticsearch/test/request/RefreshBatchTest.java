@@ -0,0 +1,100 @@
+package com.github.tlrx.elasticsearch.test.request;
+
+import com.github.tlrx.elasticsearch.test.EsSetup;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.github.tlrx.elasticsearch.test.EsSetup.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link RefreshBatch}
+ */
+public class RefreshBatchTest {
+
+    EsSetup esSetup;
+
+    @Before
+    public void setUp() {
+        esSetup = new EsSetup();
+        esSetup.execute(deleteAll(), createIndex("refresh")
+                .withSettings(Settings.builder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.refresh_interval", -1)
+                        .build()));
+    }
+
+    @Test
+    public void testDeferred() {
+        RefreshBatch batch = new RefreshBatch(esSetup.client(), RefreshStrategy.DEFERRED);
+        batch.execute(index("refresh", "doc", "1").withSource("{}"));
+        batch.execute(index("refresh", "doc", "2").withSource("{}"));
+        assertEquals(Collections.singleton("refresh"), batch.dirtyIndices());
+
+        // Documents are read in real time
+        assertTrue(batch.execute(new Exists("refresh", "doc", "1")));
+        assertEquals(Collections.singleton("refresh"), batch.dirtyIndices());
+
+        // Searches see the documents
+        assertEquals(Long.valueOf(2), batch.execute(new Count("refresh")));
+        assertTrue(batch.dirtyIndices().isEmpty());
+    }
+
+    @Test
+    public void testRequestStrategy() {
+        RefreshBatch batch = new RefreshBatch(esSetup.client(), RefreshStrategy.DEFERRED);
+        batch.execute(index("refresh", "doc", "1").withSource("{}").withRefreshStrategy(RefreshStrategy.NONE));
+        assertTrue(batch.dirtyIndices().isEmpty());
+        batch.refresh();
+        assertEquals(Long.valueOf(0), esSetup.count("refresh"));
+
+        batch.execute(index("refresh", "doc", "2").withSource("{}").withRefreshStrategy(RefreshStrategy.IMMEDIATE));
+        assertEquals(Long.valueOf(2), esSetup.count("refresh"));
+    }
+
+    @Test
+    public void testDeletedIndices() {
+        RefreshBatch batch = new RefreshBatch(esSetup.client(), RefreshStrategy.DEFERRED);
+        batch.execute(index("refresh", "doc", "1").withSource("{}"));
+        batch.execute(deleteIndex("refresh"));
+        assertTrue(batch.dirtyIndices().isEmpty());
+        batch.refresh();
+    }
+
+    @Test
+    public void testDeletedDirtyIndex() {
+        esSetup.execute(createIndex("refresh-other")
+                .withSettings(Settings.builder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.refresh_interval", -1)
+                        .build()));
+        RefreshBatch batch = new RefreshBatch(esSetup.client(), RefreshStrategy.DEFERRED);
+        batch.execute(index("refresh", "doc", "1").withSource("{}"));
+        batch.execute(index("refresh-other", "doc", "1").withSource("{}"));
+        batch.execute(deleteIndex("refresh-other"));
+        assertEquals(Collections.singleton("refresh"), batch.dirtyIndices());
+
+        batch.refresh();
+        assertEquals(Long.valueOf(1), esSetup.count("refresh"));
+    }
+
+    @Test
+    public void testDeletedDirtyIndicesPattern() {
+        RefreshBatch batch = new RefreshBatch(esSetup.client(), RefreshStrategy.DEFERRED);
+        batch.execute(index("refresh", "doc", "1").withSource("{}"));
+        batch.execute(index("refresh-2", "doc", "1").withSource("{}"));
+        batch.execute(deleteIndices("refresh-*"));
+        assertEquals(Collections.singleton("refresh"), batch.dirtyIndices());
+        batch.refresh();
+    }
+
+    @After
+    public void tearDown() {
+        esSetup.terminate();
+    }
+}